@@ -0,0 +1,159 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The byte encodings supported by the <tt>formatTo</tt> methods of the
+ * formatters.  Formatted values are almost always pure ASCII, so both
+ * encodings copy ASCII characters straight into the buffer and only fall back
+ * to the general path for the remaining characters.
+ * <p>
+ * If the buffer does not have enough space left, a
+ * {@link java.nio.BufferOverflowException} is thrown and the position of the
+ * buffer is unspecified.
+ */
+public enum ByteEncoding {
+    /** UTF-8; unpaired surrogates are written as <tt>'?'</tt>. */
+    UTF_8 {
+        @Override
+        protected int encodeNonAscii(CharSequence src, int start, int end, ByteBuffer dst) {
+            int written = 0;
+            for (int i = start; i < end; i++) {
+                char ch = src.charAt(i);
+                if (ch < 0x80) {
+                    dst.put((byte) ch);
+                    written++;
+                } else if (ch < 0x800) {
+                    dst.put((byte) (0xC0 | (ch >> 6)));
+                    dst.put((byte) (0x80 | (ch & 0x3F)));
+                    written += 2;
+                } else if (Character.isHighSurrogate(ch) && i + 1 < end
+                        && Character.isLowSurrogate(src.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(ch, src.charAt(++i));
+                    dst.put((byte) (0xF0 | (cp >> 18)));
+                    dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    dst.put((byte) (0x80 | (cp & 0x3F)));
+                    written += 4;
+                } else if (Character.isSurrogate(ch)) {
+                    dst.put((byte) '?');
+                    written++;
+                } else {
+                    dst.put((byte) (0xE0 | (ch >> 12)));
+                    dst.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                    dst.put((byte) (0x80 | (ch & 0x3F)));
+                    written += 3;
+                }
+            }
+            return written;
+        }
+    },
+    /** ISO-8859-1; characters outside of Latin-1 are written as <tt>'?'</tt>. */
+    ISO_8859_1 {
+        @Override
+        protected int encodeNonAscii(CharSequence src, int start, int end, ByteBuffer dst) {
+            int written = 0;
+            for (int i = start; i < end; i++) {
+                char ch = src.charAt(i);
+                if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(src.charAt(i + 1))) {
+                    // one code point, one replacement character
+                    i++;
+                }
+                dst.put(ch <= 0xFF ? (byte) ch : (byte) '?');
+                written++;
+            }
+            return written;
+        }
+    };
+
+    /**
+     * Encodes a range of characters into the buffer.
+     *
+     * @param src   The characters to encode.
+     * @param start The index of the first character.
+     * @param end   The index after the last character.
+     * @param dst   The buffer to write to.
+     *
+     * @return The number of bytes written.
+     */
+    public int encode(CharSequence src, int start, int end, ByteBuffer dst) {
+        int i = start;
+        if (dst.hasArray()) {
+            // ASCII fast path straight into the backing array
+            byte[] array = dst.array();
+            int offset = dst.arrayOffset() + dst.position();
+            int limit = start + Math.min(end - start, dst.remaining());
+            while (i < limit) {
+                char ch = src.charAt(i);
+                if (ch >= 0x80) {
+                    break;
+                }
+                array[offset++] = (byte) ch;
+                i++;
+            }
+            dst.position(offset - dst.arrayOffset());
+        } else {
+            while (i < end) {
+                char ch = src.charAt(i);
+                if (ch >= 0x80) {
+                    break;
+                }
+                dst.put((byte) ch);
+                i++;
+            }
+        }
+        int written = i - start;
+        if (i < end) {
+            written += encodeNonAscii(src, i, end, dst);
+        }
+        return written;
+    }
+
+    /**
+     * Encodes the whole character sequence into the buffer.
+     *
+     * @param src The characters to encode.
+     * @param dst The buffer to write to.
+     *
+     * @return The number of bytes written.
+     */
+    public int encode(CharSequence src, ByteBuffer dst) {
+        return encode(src, 0, src.length(), dst);
+    }
+
+    /**
+     * Returns the encoded form of a string.  Used to precompute the bytes of
+     * format literals.
+     *
+     * @param str The string to encode.
+     *
+     * @return The encoded bytes.
+     */
+    public byte[] toBytes(String str) {
+        ByteBuffer buffer = ByteBuffer.allocate(str.length() * 4);
+        encode(str, buffer);
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    protected abstract int encodeNonAscii(CharSequence src, int start, int end, ByteBuffer dst);
+}
@@ -25,22 +25,33 @@ import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.Date;
 import java.util.Formatter;
 import java.util.Locale;
+import java.util.Objects;
 
 import com.intechcore.poi.bridge.BridgeContainer;
+import com.intechcore.poi.bridge.CalendarTable;
 import com.intechcore.org.apache.poi.util.StringUtil;
 
 public class DateFormatter extends ValueFormatter {
     protected final DateFormat dateFmt;
     protected final DatePartHandler partHandler;
+    private final boolean layoutMarks;
+    /** The compiled pattern, or <tt>null</tt> if only {@link #dateFmt} can write it. */
+    private final DatePlan plan;
 
-    protected final LocalDateTime EXCEL_START_DATE = BridgeContainer.getStartDate1904();
+    protected final LocalDateTime EXCEL_START_DATE;
 
     protected static /* final */ DateFormatter simpleDate;
 
+    /** {@link #simpleDate} with the start date of this formatter. */
+    private volatile DateFormatter simpleDateOfStart;
+
     /**
      * Creates a new date formatter with the given specification.
      *
@@ -58,6 +69,8 @@ public class DateFormatter extends ValueFormatter {
      */
     public DateFormatter(Locale locale, String format) {
         super(format);
+        EXCEL_START_DATE = BridgeContainer.getStartDate1904();
+        layoutMarks = FormatPart.usesLayoutMarks(format);
         partHandler = new DatePartHandler();
         StringBuffer descBuf = FormatPart.parseFormat(format, FormatType.DATE, partHandler);
         partHandler.finish(descBuf);
@@ -65,10 +78,104 @@ public class DateFormatter extends ValueFormatter {
         // See https://issues.apache.org/bugzilla/show_bug.cgi?id=53369
         String ptrn = descBuf.toString().replaceAll("((y)(?!y))(?<!yy)", "yy");
         dateFmt = new SimpleDateFormat(ptrn, locale);
+        plan = DatePlan.compile(ptrn, locale);
+    }
+
+    /**
+     * Creates a date formatter from a parsed one, sharing the parsed format.
+     *
+     * @param parsed    The formatter to take the parsed format from.
+     * @param dateFmt   The date format to use, not shared with another
+     *                  formatter.
+     * @param plan      The compiled pattern for the locale of the date
+     *                  format, or <tt>null</tt>.
+     * @param startDate The date of the serial number 0.
+     */
+    private DateFormatter(DateFormatter parsed, DateFormat dateFmt, DatePlan plan, LocalDateTime startDate) {
+        super(parsed.format);
+        EXCEL_START_DATE = startDate;
+        layoutMarks = parsed.layoutMarks;
+        partHandler = parsed.partHandler;
+        this.dateFmt = dateFmt;
+        this.plan = plan;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The result uses the start date of {@link BridgeContainer}, like a newly
+     * parsed formatter; see {@link #withStartDate(LocalDateTime)}.
+     */
+    @Override
+    protected ValueFormatter withLocale(Locale locale) {
+        String ptrn = ((SimpleDateFormat) dateFmt).toPattern();
+        return new DateFormatter(this, new SimpleDateFormat(ptrn, locale), DatePlan.compile(ptrn, locale),
+                BridgeContainer.getStartDate1904());
+    }
+
+    @Override
+    protected ValueFormatter withStartDate(LocalDateTime startDate) {
+        if (Objects.equals(startDate, EXCEL_START_DATE)) {
+            return this;
+        }
+        return new DateFormatter(this, (DateFormat) dateFmt.clone(), plan, startDate);
     }
 
     /** {@inheritDoc} */
-    public synchronized void formatValue(StringBuffer toAppendTo, Object value) {
+    public void formatValue(StringBuffer toAppendTo, Object value) {
+        int start = toAppendTo.length();
+        formatMarked(toAppendTo, value);
+        if (layoutMarks) {
+            FormatPart.expandLayoutMarks(toAppendTo, start);
+        }
+    }
+
+    @Override
+    protected boolean hasLayoutMarks() {
+        return layoutMarks;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The value can be a serial number, or a {@link LocalDateTime},
+     * {@link LocalDate}, {@link LocalTime} or {@link Duration}; a time or a
+     * duration is counted from the start date.
+     */
+    @Override
+    protected void formatMarked(StringBuffer toAppendTo, Object value) {
+        LocalDateTime dateTime = toDateTime(value);
+        if (plan != null && plan.supports(dateTime.getYear())) {
+            plan.format(toAppendTo, dateTime, this);
+            return;
+        }
+
+        synchronized (this) {
+            AttributedCharacterIterator it = dateFmt.formatToCharacterIterator(toDate(dateTime));
+            boolean doneAm = false;
+            boolean doneMillis = false;
+
+            for (char ch = it.first();
+                 ch != CharacterIterator.DONE;
+                 ch = it.next()) {
+                if (it.getAttribute(DateFormat.Field.MILLISECOND) != null) {
+                    if (!doneMillis) {
+                        appendMillis(toAppendTo, dateTime.getSecond());
+                        doneMillis = true;
+                    }
+                } else if (it.getAttribute(DateFormat.Field.AM_PM) != null) {
+                    if (!doneAm) {
+                        appendAmPm(toAppendTo, ch);
+                        doneAm = true;
+                    }
+                } else {
+                    toAppendTo.append(ch);
+                }
+            }
+        }
+    }
+
+    private LocalDateTime toDateTime(Object value) {
         if (value == null) {
             value = 0.0;
         }
@@ -76,51 +183,77 @@ public class DateFormatter extends ValueFormatter {
             Number num = (Number) value;
             long newValue = num.longValue();
             if (newValue == 0L) {
-                value = EXCEL_START_DATE;
+                return EXCEL_START_DATE;
             } else {
                 LocalDateTime dateTime = EXCEL_START_DATE.plusSeconds((newValue / 1000));
-                dateTime = dateTime.plusNanos(newValue % 1_000_000);
-                value = dateTime;
+                return dateTime.plusNanos(newValue % 1_000_000);
             }
+        } else if (value instanceof LocalDate) {
+            return ((LocalDate) value).atStartOfDay();
+        } else if (value instanceof LocalTime) {
+            return EXCEL_START_DATE.toLocalDate().atTime((LocalTime) value);
+        } else if (value instanceof Duration) {
+            return EXCEL_START_DATE.plus((Duration) value);
         }
+        return (LocalDateTime) value;
+    }
 
-        AttributedCharacterIterator it = dateFmt.formatToCharacterIterator(toDate((LocalDateTime) value));
-        boolean doneAm = false;
-        boolean doneMillis = false;
-
-        for (char ch = it.first();
-             ch != CharacterIterator.DONE;
-             ch = it.next()) {
-            if (it.getAttribute(DateFormat.Field.MILLISECOND) != null) {
-                if (!doneMillis) {
-                    LocalDateTime dateObj = (LocalDateTime) value;
-                    int pos = toAppendTo.length();
-                    try (Formatter formatter = new Formatter(toAppendTo, Locale.ROOT)) {
-                        long msecs = dateObj.getSecond() % 1000;
-                        formatter.format(locale, partHandler.getSecondsFormat(), msecs / 1000.0);
-                    }
-                    toAppendTo.delete(pos, pos + 2);
-                    doneMillis = true;
-                }
-            } else if (it.getAttribute(DateFormat.Field.AM_PM) != null) {
-                if (!doneAm) {
-                    if (partHandler.isShowAmPm()) {
-                        if (partHandler.isAmPmUpper()) {
-                            toAppendTo.append(StringUtil.toUpperCase(ch));
-                            if (partHandler.isShowM()) {
-                                toAppendTo.append('M');
-                            }
-                        } else {
-                            toAppendTo.append(StringUtil.toLowerCase(ch));
-                            if (partHandler.isShowM()) {
-                                toAppendTo.append('m');
-                            }
-                        }
-                    }
-                    doneAm = true;
+    /**
+     * Writes the day of an epoch day with the plan, for
+     * {@link POIFormat#applyEpochMillis}, without making a
+     * {@link LocalDateTime}.
+     *
+     * @param toAppendTo  The buffer to write to.
+     * @param epochDay    The day, as counted by {@link LocalDate#toEpochDay()}.
+     * @param secondOfDay The time of day in seconds.
+     *
+     * @return <tt>false</tt>, with nothing written, if the day needs the
+     *         {@link SimpleDateFormat}.
+     */
+    boolean formatEpochDay(StringBuffer toAppendTo, long epochDay, int secondOfDay) {
+        int packed = plan != null ? CalendarTable.toPackedDate(epochDay) : CalendarTable.NONE;
+        if (packed == CalendarTable.NONE || !plan.supports(CalendarTable.year(packed))) {
+            return false;
+        }
+        int start = toAppendTo.length();
+        plan.format(toAppendTo, packed, secondOfDay, this);
+        if (layoutMarks) {
+            FormatPart.expandLayoutMarks(toAppendTo, start);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the milliseconds of the date, for the first millisecond field.
+     *
+     * @param second The second of the minute.
+     */
+    void appendMillis(StringBuffer toAppendTo, int second) {
+        int pos = toAppendTo.length();
+        try (Formatter formatter = new Formatter(toAppendTo, Locale.ROOT)) {
+            long msecs = second % 1000;
+            formatter.format(locale, partHandler.getSecondsFormat(), msecs / 1000.0);
+        }
+        toAppendTo.delete(pos, pos + 2);
+    }
+
+    /**
+     * Writes the AM/PM marker, for the first AM/PM field.
+     *
+     * @param ch The first character of the marker of the locale.
+     */
+    void appendAmPm(StringBuffer toAppendTo, char ch) {
+        if (partHandler.isShowAmPm()) {
+            if (partHandler.isAmPmUpper()) {
+                toAppendTo.append(StringUtil.toUpperCase(ch));
+                if (partHandler.isShowM()) {
+                    toAppendTo.append('M');
                 }
             } else {
-                toAppendTo.append(ch);
+                toAppendTo.append(StringUtil.toLowerCase(ch));
+                if (partHandler.isShowM()) {
+                    toAppendTo.append('m');
+                }
             }
         }
     }
@@ -136,11 +269,19 @@ public class DateFormatter extends ValueFormatter {
      * For a date, this is <tt>"mm/d/y"</tt>.
      */
     public void simpleValue(StringBuffer toAppendTo, Object value) {
-        synchronized (DateFormatter.class) {
-            if (simpleDate == null || !simpleDate.EXCEL_START_DATE.equals(EXCEL_START_DATE)) {
-                simpleDate = new DateFormatter("mm/d/y");
+        DateFormatter simple = simpleDateOfStart;
+        if (simple == null) {
+            synchronized (DateFormatter.class) {
+                if (simpleDate == null) {
+                    simpleDate = new DateFormatter("mm/d/y");
+                }
+                simple = simpleDate;
             }
+            // formatters of other start dates get their own copy, rather
+            // than replacing the shared one back and forth
+            simple = (DateFormatter) simple.withStartDate(EXCEL_START_DATE);
+            simpleDateOfStart = simple;
         }
-        simpleDate.formatValue(toAppendTo, value);
+        simple.formatValue(toAppendTo, value);
     }
 }
@@ -0,0 +1,307 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import com.intechcore.poi.bridge.CalendarTable;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The pattern of a {@link DateFormatter}, compiled into a list of fields and
+ * literals that are written straight from a date packed as in
+ * {@link CalendarTable} and the time of day, with the names of the
+ * {@link LocaleProfile}.  It
+ * writes the same text as the {@link java.text.SimpleDateFormat} of the
+ * pattern, without converting the value to a {@link java.util.Date} and
+ * without a lock.
+ * <p>
+ * Only patterns with the letters that {@link DatePartHandler} produces are
+ * compiled, and only for locales with the Gregorian calendar and ASCII
+ * digits; the formatter uses its {@link java.text.SimpleDateFormat} for the
+ * others, and for years before the Gregorian calendar, which the
+ * {@link java.text.SimpleDateFormat} writes as Julian dates.
+ */
+final class DatePlan {
+    private static final int LITERAL = 0;
+    private static final int YEAR = 1;
+    private static final int MONTH = 2;
+    private static final int DAY = 3;
+    private static final int WEEKDAY = 4;
+    private static final int HOUR_OF_DAY = 5;
+    private static final int HOUR = 6;
+    private static final int MINUTE = 7;
+    private static final int SECOND = 8;
+    private static final int MILLISECOND = 9;
+    private static final int AM_PM = 10;
+
+    /** The first year that is written the same in the Julian calendar. */
+    private static final int FIRST_GREGORIAN_YEAR = 1583;
+
+    private final int[] fields;
+    private final int[] counts;
+    private final String[] literals;
+    private final LocaleProfile profile;
+    /** The month is the only field, which gets the standalone names. */
+    private final boolean standaloneMonth;
+    private final boolean hasWeekday;
+
+    private DatePlan(int[] fields, int[] counts, String[] literals, LocaleProfile profile) {
+        this.fields = fields;
+        this.counts = counts;
+        this.literals = literals;
+        this.profile = profile;
+
+        int fieldCount = 0;
+        boolean month = false;
+        boolean weekday = false;
+        for (int field : fields) {
+            if (field != LITERAL) {
+                fieldCount++;
+                month = field == MONTH;
+                weekday |= field == WEEKDAY;
+            }
+        }
+        this.standaloneMonth = fieldCount == 1 && month;
+        this.hasWeekday = weekday;
+    }
+
+    /**
+     * Compiles a pattern of {@link java.text.SimpleDateFormat}.
+     *
+     * @param pattern The pattern.
+     * @param locale  The locale of the date format.
+     *
+     * @return The plan, or <tt>null</tt> if the pattern or the locale needs
+     *         the {@link java.text.SimpleDateFormat}.
+     */
+    static DatePlan compile(String pattern, Locale locale) {
+        LocaleProfile profile = LocaleProfile.of(locale);
+        // the Buddhist calendar is a GregorianCalendar too, so ask for the type
+        if (profile.getZeroDigit() != '0' || !"gregory".equals(Calendar.getInstance(locale).getCalendarType())) {
+            return null;
+        }
+
+        List<Integer> fieldList = new ArrayList<>();
+        List<Integer> countList = new ArrayList<>();
+        List<String> literalList = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int len = pattern.length();
+        for (int i = 0; i < len; i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '\'') {
+                if (i + 1 < len && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                    continue;
+                }
+                // quoted text, in which '' is a quote
+                for (i++; i < len; i++) {
+                    char quoted = pattern.charAt(i);
+                    if (quoted == '\'') {
+                        if (i + 1 < len && pattern.charAt(i + 1) == '\'') {
+                            literal.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        literal.append(quoted);
+                    }
+                }
+            } else if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')) {
+                int field = fieldOf(ch);
+                if (field < 0) {
+                    return null;
+                }
+                int count = 1;
+                while (i + 1 < len && pattern.charAt(i + 1) == ch) {
+                    count++;
+                    i++;
+                }
+                if (literal.length() > 0) {
+                    fieldList.add(LITERAL);
+                    countList.add(0);
+                    literalList.add(literal.toString());
+                    literal.setLength(0);
+                }
+                fieldList.add(field);
+                countList.add(count);
+                literalList.add(null);
+            } else {
+                literal.append(ch);
+            }
+        }
+        if (literal.length() > 0) {
+            fieldList.add(LITERAL);
+            countList.add(0);
+            literalList.add(literal.toString());
+        }
+
+        int[] fields = new int[fieldList.size()];
+        int[] counts = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fieldList.get(i);
+            counts[i] = countList.get(i);
+        }
+        return new DatePlan(fields, counts, literalList.toArray(new String[0]), profile);
+    }
+
+    private static int fieldOf(char ch) {
+        switch (ch) {
+            case 'y':
+                return YEAR;
+            case 'M':
+                return MONTH;
+            case 'd':
+                return DAY;
+            case 'E':
+                return WEEKDAY;
+            case 'H':
+                return HOUR_OF_DAY;
+            case 'h':
+                return HOUR;
+            case 'm':
+                return MINUTE;
+            case 's':
+                return SECOND;
+            case 'S':
+                return MILLISECOND;
+            case 'a':
+                return AM_PM;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the plan writes dates of the year like the
+     * {@link java.text.SimpleDateFormat} does.
+     */
+    boolean supports(int year) {
+        return year >= FIRST_GREGORIAN_YEAR && year <= CalendarTable.MAX_YEAR;
+    }
+
+    /**
+     * Writes the date, if {@link #supports(int) supported}.
+     *
+     * @param toAppendTo The buffer to write to.
+     * @param dateTime   The date.
+     * @param formatter  The formatter of the plan.
+     */
+    void format(StringBuffer toAppendTo, LocalDateTime dateTime, DateFormatter formatter) {
+        // the day of the week is the only field that takes arithmetic
+        int dayOfWeek = hasWeekday ? dateTime.getDayOfWeek().getValue() : DayOfWeek.MONDAY.getValue();
+        int packed = CalendarTable.pack(dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+                dayOfWeek);
+        format(toAppendTo, packed, dateTime.toLocalTime().toSecondOfDay(), formatter);
+    }
+
+    /**
+     * Writes the date.  The milliseconds and the AM/PM marker are written by
+     * the formatter, as for the {@link java.text.SimpleDateFormat}.
+     *
+     * @param toAppendTo  The buffer to write to.
+     * @param packed      The date, packed as in {@link CalendarTable}, of a
+     *                    {@link #supports(int) supported} year.
+     * @param secondOfDay The time of day in seconds.
+     * @param formatter   The formatter of the plan.
+     */
+    void format(StringBuffer toAppendTo, int packed, int secondOfDay, DateFormatter formatter) {
+        int hourOfDay = secondOfDay / 3600;
+        boolean doneAm = false;
+        boolean doneMillis = false;
+        for (int i = 0; i < fields.length; i++) {
+            int count = counts[i];
+            switch (fields[i]) {
+                case LITERAL:
+                    toAppendTo.append(literals[i]);
+                    break;
+                case YEAR:
+                    int year = CalendarTable.year(packed);
+                    if (count == 2) {
+                        pad(toAppendTo, year % 100, 2);
+                    } else {
+                        pad(toAppendTo, year, count);
+                    }
+                    break;
+                case MONTH:
+                    int month = CalendarTable.month(packed);
+                    if (count >= 4) {
+                        toAppendTo.append(standaloneMonth ? profile.getStandaloneMonthName(month)
+                                : profile.getMonthName(month));
+                    } else if (count == 3) {
+                        toAppendTo.append(standaloneMonth ? profile.getShortStandaloneMonthName(month)
+                                : profile.getShortMonthName(month));
+                    } else {
+                        pad(toAppendTo, month, count);
+                    }
+                    break;
+                case DAY:
+                    pad(toAppendTo, CalendarTable.day(packed), count);
+                    break;
+                case WEEKDAY:
+                    DayOfWeek dayOfWeek = DayOfWeek.of(CalendarTable.dayOfWeek(packed));
+                    toAppendTo.append(count >= 4 ? profile.getDayName(dayOfWeek) : profile.getShortDayName(dayOfWeek));
+                    break;
+                case HOUR_OF_DAY:
+                    pad(toAppendTo, hourOfDay, count);
+                    break;
+                case HOUR:
+                    int hour = hourOfDay % 12;
+                    pad(toAppendTo, hour == 0 ? 12 : hour, count);
+                    break;
+                case MINUTE:
+                    pad(toAppendTo, secondOfDay / 60 % 60, count);
+                    break;
+                case SECOND:
+                    pad(toAppendTo, secondOfDay % 60, count);
+                    break;
+                case MILLISECOND:
+                    if (!doneMillis) {
+                        formatter.appendMillis(toAppendTo, secondOfDay % 60);
+                        doneMillis = true;
+                    }
+                    break;
+                case AM_PM:
+                    String marker = profile.getAmPm(hourOfDay >= 12);
+                    if (!doneAm && !marker.isEmpty()) {
+                        formatter.appendAmPm(toAppendTo, marker.charAt(0));
+                        doneAm = true;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("field " + fields[i]);
+            }
+        }
+    }
+
+    /** Writes the number with at least the number of digits. */
+    private static void pad(StringBuffer toAppendTo, int value, int digits) {
+        String text = Integer.toString(value);
+        for (int i = text.length(); i < digits; i++) {
+            toAppendTo.append('0');
+        }
+        toAppendTo.append(text);
+    }
+}
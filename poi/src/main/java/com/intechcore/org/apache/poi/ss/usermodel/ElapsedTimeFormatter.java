@@ -21,6 +21,8 @@
 ==================================================================== */
 package com.intechcore.org.apache.poi.ss.usermodel;
 
+import java.time.Duration;
+import java.time.LocalTime;
 import java.util.Formatter;
 import java.util.ListIterator;
 import java.util.Locale;
@@ -31,8 +33,12 @@ import java.util.Locale;
  * @author Ken Arnold, Industrious Media LLC
  */
 public class ElapsedTimeFormatter extends ValueFormatter {
+    private static final double SECONDS_PER_DAY = 86_400.0;
+    private static final double NANOS_PER_DAY = 86_400_000_000_000.0;
+
     protected final String printfFmt;
     protected final ElapsedTimePartHandler partHandler;
+    private final boolean layoutMarks;
 
     /**
      * Creates a elapsed time formatter.
@@ -42,7 +48,8 @@ public class ElapsedTimeFormatter extends ValueFormatter {
     public ElapsedTimeFormatter(String pattern) {
         super(pattern);
 
-        partHandler = new ElapsedTimePartHandler();
+        layoutMarks = FormatPart.usesLayoutMarks(pattern);
+        partHandler = new ElapsedTimePartHandler(layoutMarks);
         StringBuffer desc = FormatPart.parseFormat(pattern, FormatType.ELAPSED, partHandler);
 
         ListIterator<ElapsedTimeSpec> it = partHandler.getSpecs().listIterator(partHandler.getSpecs().size());
@@ -61,7 +68,21 @@ public class ElapsedTimeFormatter extends ValueFormatter {
 
     /** {@inheritDoc} */
     public void formatValue(StringBuffer toAppendTo, Object value) {
-        double elapsed = ((Number) value).doubleValue();
+        int start = toAppendTo.length();
+        formatMarked(toAppendTo, value);
+        if (layoutMarks) {
+            FormatPart.expandLayoutMarks(toAppendTo, start);
+        }
+    }
+
+    @Override
+    protected boolean hasLayoutMarks() {
+        return layoutMarks;
+    }
+
+    @Override
+    protected void formatMarked(StringBuffer toAppendTo, Object value) {
+        double elapsed = toDays(value);
 
         if (elapsed < 0) {
             toAppendTo.append('-');
@@ -78,6 +99,24 @@ public class ElapsedTimeFormatter extends ValueFormatter {
         }
     }
 
+    /**
+     * Returns the days of an elapsed time: a number of days, a
+     * {@link Duration}, or the time since midnight of a {@link LocalTime}.
+     *
+     * @param value The elapsed time.
+     *
+     * @return The days, with the time as the fraction.
+     */
+    static double toDays(Object value) {
+        if (value instanceof Duration) {
+            Duration duration = (Duration) value;
+            return duration.getSeconds() / SECONDS_PER_DAY + duration.getNano() / NANOS_PER_DAY;
+        } else if (value instanceof LocalTime) {
+            return ((LocalTime) value).toNanoOfDay() / NANOS_PER_DAY;
+        }
+        return ((Number) value).doubleValue();
+    }
+
     /**
      * {@inheritDoc}
      * <p>
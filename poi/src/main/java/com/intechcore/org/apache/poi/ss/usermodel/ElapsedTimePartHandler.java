@@ -31,9 +31,18 @@ public class ElapsedTimePartHandler implements PartHandler {
     protected static final Pattern PERCENTS =  Pattern.compile("%");
 
     protected final List<ElapsedTimeSpec> specs = new ArrayList<>();
+    protected final boolean layoutMarks;
 
     protected ElapsedTimeSpec topmost;
 
+    public ElapsedTimePartHandler() {
+        this(false);
+    }
+
+    public ElapsedTimePartHandler(boolean layoutMarks) {
+        this.layoutMarks = layoutMarks;
+    }
+
     public List<ElapsedTimeSpec> getSpecs() {
         return specs;
     }
@@ -84,7 +93,7 @@ public class ElapsedTimePartHandler implements PartHandler {
 
             case '*':
                 if (part.length() > 1) {
-                    part = FormatPart.expandChar(part);
+                    part = FormatPart.layoutMark(part, layoutMarks);
                 }
                 break;
 
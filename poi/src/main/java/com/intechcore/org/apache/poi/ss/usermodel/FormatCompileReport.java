@@ -0,0 +1,98 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of {@link POIFormat#compileAll(java.util.Locale, java.util.Collection)}.
+ */
+public final class FormatCompileReport {
+    private final int requestedCount;
+    private final int reusedCount;
+    private final Map<String, Long> compileNanos;
+    private final Map<String, String> failures;
+
+    FormatCompileReport(int requestedCount, int reusedCount, Map<String, Long> compileNanos,
+                        Map<String, String> failures) {
+        this.requestedCount = requestedCount;
+        this.reusedCount = reusedCount;
+        this.compileNanos = Collections.unmodifiableMap(compileNanos);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return The number of distinct format codes asked for.
+     */
+    public int getRequestedCount() {
+        return requestedCount;
+    }
+
+    /**
+     * @return The number of format codes that were already compiled.
+     */
+    public int getReusedCount() {
+        return reusedCount;
+    }
+
+    /**
+     * @return The number of format codes compiled by this call.
+     */
+    public int getCompiledCount() {
+        return compileNanos.size();
+    }
+
+    /**
+     * @return The time each format code took to compile, in nanoseconds, in
+     *         the order they were given.
+     */
+    public Map<String, Long> getCompileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * @return The sum of the compile times, in nanoseconds.
+     */
+    public long getTotalCompileNanos() {
+        long total = 0;
+        for (long nanos : compileNanos.values()) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the format codes that could not be compiled, or that have a
+     * section which is not valid, with the reason.  Such a format is still
+     * usable; the invalid section is treated like before.
+     *
+     * @return The reason of each failed format code.
+     */
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "FormatCompileReport[requested=" + requestedCount + ", reused=" + reusedCount
+                + ", compiled=" + getCompiledCount() + ", failed=" + failures.size()
+                + ", nanos=" + getTotalCompileNanos() + "]";
+    }
+}
@@ -0,0 +1,176 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The channel through which the formatting code reports problems with format
+ * codes, such as a section that is not valid or an unknown color.
+ *
+ * Each problem is passed to the {@link Listener} as a {@link Diagnostic}.  The
+ * default listener logs it as a single warning line without a stack trace.
+ * Problems are rate limited before they reach the listener: the same problem
+ * with the same format is reported once, and at most
+ * {@link #MAX_REPORTS_PER_WINDOW} problems are reported per minute.  The
+ * rest are counted, see {@link #getSuppressedCount()}.
+ */
+public final class FormatDiagnostics {
+    /** The kind of a problem. */
+    public enum Kind {
+        /** A section of a format code could not be parsed. */
+        INVALID_SECTION,
+        /** A section names a color that is not known. */
+        UNKNOWN_COLOR,
+        /** A value could not be written as a fraction. */
+        FRACTION_FAILURE
+    }
+
+    /** A problem with a format code. */
+    public static final class Diagnostic {
+        private final Kind kind;
+        private final String format;
+        private final String detail;
+
+        Diagnostic(Kind kind, String format, String detail) {
+            this.kind = kind;
+            this.format = format;
+            this.detail = detail;
+        }
+
+        /**
+         * @return The kind of the problem.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return The format code or section with the problem.
+         */
+        public String getFormat() {
+            return format;
+        }
+
+        /**
+         * @return What went wrong.
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + ValueFormatter.quote(format) + ": " + detail;
+        }
+    }
+
+    /** Receives the problems that pass the rate limit. */
+    public interface Listener {
+        /**
+         * @param diagnostic   The problem.
+         * @param suppressed   The number of problems dropped by the rate limit
+         *                     since the previous report.
+         */
+        void report(Diagnostic diagnostic, long suppressed);
+    }
+
+    /** The most problems reported per minute. */
+    public static final int MAX_REPORTS_PER_WINDOW = 100;
+
+    private static final long WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
+    /** The most distinct problems remembered for de-duplication. */
+    private static final int MAX_SEEN = 4096;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FormatDiagnostics.class);
+
+    private static final Listener LOGGING_LISTENER = (diagnostic, suppressed) -> {
+        if (suppressed > 0) {
+            LOG.warn("{} ({} more format problems suppressed)", diagnostic, suppressed);
+        } else {
+            LOG.warn("{}", diagnostic);
+        }
+    };
+
+    private static volatile Listener listener = LOGGING_LISTENER;
+
+    private static final Map<String, Boolean> SEEN = new ConcurrentHashMap<>();
+    private static final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private static final AtomicInteger windowCount = new AtomicInteger();
+    private static final AtomicLong pendingSuppressed = new AtomicLong();
+    private static final LongAdder suppressedTotal = new LongAdder();
+
+    private FormatDiagnostics() {
+    }
+
+    /**
+     * Sets the listener that receives the problems.
+     *
+     * @param newListener The listener, or <tt>null</tt> to log them.
+     */
+    public static void setListener(Listener newListener) {
+        listener = newListener == null ? LOGGING_LISTENER : newListener;
+    }
+
+    /**
+     * @return The number of problems that were not reported because of the
+     *         rate limit or because they were reported before.
+     */
+    public static long getSuppressedCount() {
+        return suppressedTotal.sum();
+    }
+
+    /**
+     * Reports a problem, unless the same problem was reported before or too
+     * many problems were reported in the last minute.
+     *
+     * @param kind   The kind of the problem.
+     * @param format The format code or section with the problem.
+     * @param detail What went wrong.
+     */
+    static void report(Kind kind, String format, String detail) {
+        if (SEEN.size() >= MAX_SEEN) {
+            SEEN.clear();
+        }
+        if (SEEN.putIfAbsent(kind.name() + ':' + format, Boolean.TRUE) != null) {
+            suppressedTotal.increment();
+            return;
+        }
+
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+        }
+        if (windowCount.incrementAndGet() > MAX_REPORTS_PER_WINDOW) {
+            pendingSuppressed.incrementAndGet();
+            suppressedTotal.increment();
+            return;
+        }
+        listener.report(new Diagnostic(kind, format, detail), pendingSuppressed.getAndSet(0));
+    }
+}
@@ -0,0 +1,109 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import com.intechcore.poi.bridge.PoiResult;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results a {@link POIFormat} wrote for recent values, so that repeated
+ * values are not formatted again.  The memo is lossy: it is an open-addressed
+ * table of a fixed number of slots, keyed by the kind of the value and its
+ * bits, e.g. the raw bits of a double or the epoch day of a date, in which
+ * every key hashes to exactly one slot.  A new result overwrites whatever
+ * result was in its slot, so the memo never grows, and a value whose slot was
+ * taken by another value is simply formatted again.
+ * <p>
+ * The memo takes no lock: entries are immutable, so a reader sees either a
+ * complete entry or the one before it.
+ */
+final class FormatMemo {
+    /** A number, keyed by {@link Double#doubleToRawLongBits(double)}. */
+    static final int NUMBER = 0;
+    /** A {@link java.time.LocalDate}, keyed by its epoch day. */
+    static final int DATE = 1;
+    /** A {@link Boolean}, keyed by 1 or 0. */
+    static final int BOOLEAN = 2;
+
+    private static final int MAX_CAPACITY = 1 << 20;
+
+    private static final class Entry {
+        final int kind;
+        final long bits;
+        final PoiResult result;
+
+        Entry(int kind, long bits, PoiResult result) {
+            this.kind = kind;
+            this.bits = bits;
+            this.result = result;
+        }
+    }
+
+    private final Entry[] table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity The number of slots, rounded up to a power of two and
+     *                 limited to 2^20.
+     */
+    FormatMemo(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(Math.min(capacity, MAX_CAPACITY));
+        table = new Entry[size < capacity && size < MAX_CAPACITY ? size << 1 : size];
+    }
+
+    /**
+     * Returns the remembered result for the key, or <tt>null</tt>.
+     */
+    PoiResult get(int kind, long bits) {
+        Entry entry = table[slot(kind, bits)];
+        if (entry != null && entry.bits == bits && entry.kind == kind) {
+            hits.increment();
+            return entry.result;
+        }
+        misses.increment();
+        return null;
+    }
+
+    void put(int kind, long bits, PoiResult result) {
+        table[slot(kind, bits)] = new Entry(kind, bits, result);
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    int getCapacity() {
+        return table.length;
+    }
+
+    private int slot(int kind, long bits) {
+        // Fibonacci hashing: the top bits of the product are well mixed
+        long hash = (bits + kind) * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 40) & (table.length - 1);
+    }
+}
@@ -0,0 +1,189 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+/**
+ * What a format code is, as far as it can be told without a value: the kind
+ * of each section, its decimal places, currency and so on.  It is computed
+ * once per {@link POIFormat}, see {@link POIFormat#getMetadata()}.
+ */
+public final class FormatMetadata {
+    /** The index of the section for positive numbers. */
+    public static final int POSITIVE = 0;
+    /** The index of the section for negative numbers. */
+    public static final int NEGATIVE = 1;
+    /** The index of the section for zero. */
+    public static final int ZERO = 2;
+    /** The index of the section for text. */
+    public static final int TEXT = 3;
+
+    /** What a single section of a format code is. */
+    public static final class Section {
+        private final FormatType type;
+        private final boolean hidden;
+        private final int decimalPlaces;
+        private final double percentScale;
+        private final boolean grouping;
+        private final String currencySign;
+        private final boolean condition;
+        private final boolean color;
+
+        Section(FormatPart part) {
+            this.type = part.getCellFormatType();
+            this.hidden = part.isHidden();
+            this.decimalPlaces = part.getNumberOfDecimalPlaces();
+            this.percentScale = part.getPercentScale();
+            this.grouping = part.isGrouping();
+            this.currencySign = part.getCurrencySign();
+            this.condition = part.hasCondition();
+            this.color = part.hasColor();
+        }
+
+        public FormatType getType() {
+            return type;
+        }
+
+        public boolean isNumeric() {
+            return type == FormatType.NUMBER;
+        }
+
+        public boolean isDate() {
+            return type == FormatType.DATE;
+        }
+
+        public boolean isElapsed() {
+            return type == FormatType.ELAPSED;
+        }
+
+        public boolean isText() {
+            return type == FormatType.TEXT;
+        }
+
+        /**
+         * @return <tt>true</tt> if the section is empty and shows nothing.
+         */
+        public boolean isHidden() {
+            return hidden;
+        }
+
+        public int getDecimalPlaces() {
+            return decimalPlaces;
+        }
+
+        /**
+         * @return The factor the <tt>%</tt> signs multiply the value by, or 1.
+         */
+        public double getPercentScale() {
+            return percentScale;
+        }
+
+        /**
+         * @return <tt>true</tt> if the section separates the thousands.
+         */
+        public boolean isGrouping() {
+            return grouping;
+        }
+
+        /**
+         * @return The currency sign, or <tt>null</tt> if there is none.
+         */
+        public String getCurrencySign() {
+            return currencySign;
+        }
+
+        public boolean hasCondition() {
+            return condition;
+        }
+
+        public boolean hasColor() {
+            return color;
+        }
+    }
+
+    private final Section[] sections;
+    private final boolean numeric;
+    private final boolean conditions;
+    private final boolean colors;
+
+    /**
+     * @param parts The positive, negative, zero and text parts, each
+     *              <tt>null</tt> if the format does not have it or it is not
+     *              valid.
+     */
+    FormatMetadata(FormatPart... parts) {
+        this.sections = new Section[parts.length];
+        boolean hasConditions = false;
+        boolean hasColors = false;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] != null) {
+                sections[i] = new Section(parts[i]);
+                hasConditions |= sections[i].hasCondition();
+                hasColors |= sections[i].hasColor();
+            }
+        }
+        this.conditions = hasConditions;
+        this.colors = hasColors;
+
+        // hidden sections show no value at all, so they do not count
+        Section pos = sections[POSITIVE];
+        boolean result = pos != null && (pos.isHidden() || pos.isNumeric());
+        for (int i = NEGATIVE; i <= ZERO; i++) {
+            if (sections[i] != null && !sections[i].isHidden()) {
+                result = result && sections[i].isNumeric();
+            }
+        }
+        this.numeric = result;
+    }
+
+    /**
+     * Returns a section of the format.
+     *
+     * @param index {@link #POSITIVE}, {@link #NEGATIVE}, {@link #ZERO} or
+     *              {@link #TEXT}.
+     *
+     * @return The section, or <tt>null</tt> if the format does not have it or
+     *         it is not valid.
+     */
+    public Section getSection(int index) {
+        return sections[index];
+    }
+
+    /**
+     * @return <tt>true</tt> if all the number sections that show a value are
+     *         number formats.
+     */
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @return The currency sign of a numeric format, or <tt>null</tt>.
+     */
+    public String getCurrencySign() {
+        return numeric && sections[POSITIVE] != null ? sections[POSITIVE].getCurrencySign() : null;
+    }
+
+    public boolean hasConditions() {
+        return conditions;
+    }
+
+    public boolean hasColor() {
+        return colors;
+    }
+}
@@ -24,12 +24,15 @@ package com.intechcore.org.apache.poi.ss.usermodel;
 import com.intechcore.poi.bridge.PoiResult;
 import com.intechcore.org.apache.poi.util.StringCodepointsIterable;
 
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -61,6 +64,9 @@ public class FormatPart {
     protected String colorString;
     protected FormatCondition condition;
     protected String conditionString;
+    private final boolean hidden;
+    /** The result of every value this part applies to, if it does not depend on the value. */
+    private final PoiResult constantResult;
 
     static {
         NAMED_COLORS = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
@@ -92,6 +98,16 @@ public class FormatPart {
     /** Pattern for an entire cell single part. */
     public static final Pattern FORMAT_PAT;
 
+    /**
+     * The padding (<tt>_x</tt>) and fill (<tt>*x</tt>) parts are kept in the
+     * parsed descriptions as single private use characters that encode the
+     * character, so that {@link FormatSink}s can report them.  The formatters
+     * expand them into the flattened text.
+     */
+    static final char PADDING_MARK = '\uE000';
+    static final char FILL_MARK = '\uEC00';
+    static final int LAYOUT_MARK_RANGE = FILL_MARK - PADDING_MARK;
+
     /** Within {@link #FORMAT_PAT}, the group number for the matched color. */
     public static final int COLOR_GROUP;
     /**
@@ -169,6 +185,227 @@ public class FormatPart {
         SPECIFICATION_GROUP = findGroup("[Blue][>1]\\a ?", "\\a ?");
     }
 
+    /**
+     * The most parts {@link #getInstance(Locale, String)} keeps; when there
+     * are more, arbitrary ones are dropped to make room.
+     */
+    private static final int MAX_INTERNED_PARTS = 4096;
+    private static final Map<PartKey, FormatPart> INTERNED_PARTS = new ConcurrentHashMap<>();
+    /** The sections that are not valid, with the reason. */
+    private static final Map<PartKey, String> FAILED_PARTS = new ConcurrentHashMap<>();
+    private static final FormatPart HIDDEN = new FormatPart();
+    /**
+     * The characters {@link #canonicalize(String)} writes as <tt>\c</tt>
+     * instead of <tt>"c"</tt>; none of them has a meaning in any format.
+     */
+    private static final String QUOTABLE_CHARS = "-+() ";
+
+    private static final class PartKey {
+        private final Locale locale;
+        private final String desc;
+
+        PartKey(Locale locale, String desc) {
+            this.locale = locale;
+            this.desc = desc;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PartKey)) {
+                return false;
+            }
+            PartKey that = (PartKey) obj;
+            return desc.equals(that.desc) && locale.equals(that.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * locale.hashCode() + desc.hashCode();
+        }
+    }
+
+    /**
+     * Returns a format part for the section text.  Format parts are immutable,
+     * so equal sections of all formats share one compiled part, like the
+     * <tt>#,##0.00</tt> of <tt>#,##0.00;[Red]-#,##0.00</tt> and
+     * <tt>#,##0.00;(#,##0.00)</tt>.  Sections that are spelled differently
+     * but mean the same, like <tt>[RED]"-"0</tt> and <tt>[Red]\-0</tt>, share
+     * one part too; see {@link #canonicalize(String)}.
+     *
+     * @param locale The locale to use.
+     * @param desc   The string to parse.
+     *
+     * @return The format part.
+     *
+     * @throws IllegalArgumentException If the section is not a valid format.
+     */
+    public static FormatPart getInstance(Locale locale, String desc) {
+        FormatPart part = find(locale, desc);
+        if (part == null) {
+            throw new IllegalArgumentException(FAILED_PARTS.get(new PartKey(locale, desc)));
+        }
+        return part;
+    }
+
+    /**
+     * Returns a format part for the section text like
+     * {@link #getInstance(Locale, String)}, or <tt>null</tt> if the section is
+     * not valid.  Invalid sections are remembered too, so each one is parsed
+     * and reported to {@link FormatDiagnostics} once.
+     *
+     * @param locale The locale to use.
+     * @param desc   The string to parse.
+     *
+     * @return The format part, or <tt>null</tt>.
+     */
+    static FormatPart find(Locale locale, String desc) {
+        PartKey key = new PartKey(locale, desc);
+        FormatPart part = INTERNED_PARTS.get(key);
+        if (part == null && !FAILED_PARTS.containsKey(key)) {
+            String canonical = canonicalize(desc);
+            PartKey canonicalKey = null;
+            if (!canonical.equals(desc)) {
+                canonicalKey = new PartKey(locale, canonical);
+                part = INTERNED_PARTS.get(canonicalKey);
+            }
+            if (part == null) {
+                try {
+                    part = new FormatPart(locale, canonical);
+                } catch (RuntimeException e) {
+                    String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                    intern(FAILED_PARTS, key, message);
+                    FormatDiagnostics.report(FormatDiagnostics.Kind.INVALID_SECTION, desc, message);
+                    return null;
+                }
+                if (canonicalKey != null) {
+                    part = intern(INTERNED_PARTS, canonicalKey, part);
+                }
+            }
+            part = intern(INTERNED_PARTS, key, part);
+        }
+        return part;
+    }
+
+    /**
+     * Returns the part of a section for another locale, made from the part of
+     * the same section in some locale without parsing the section again.  The
+     * result is shared like the parts of {@link #getInstance(Locale, String)}.
+     *
+     * @param part   The part of the section in some locale.
+     * @param locale The locale to use.
+     * @param desc   The text of the section.
+     *
+     * @return The part for the locale.
+     */
+    static FormatPart rebind(FormatPart part, Locale locale, String desc) {
+        PartKey key = new PartKey(locale, desc);
+        FormatPart result = INTERNED_PARTS.get(key);
+        if (result == null) {
+            ValueFormatter localized = part.format.withLocale(locale);
+            result = localized == part.format ? part : new FormatPart(part, localized);
+            result = intern(INTERNED_PARTS, key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns this part for another date system, given by the date of the
+     * serial number 0.  Only date parts change.
+     *
+     * @param startDate The date of the serial number 0.
+     *
+     * @return The part for the date system.
+     */
+    FormatPart withStartDate(LocalDateTime startDate) {
+        ValueFormatter bound = format.withStartDate(startDate);
+        return bound == format ? this : new FormatPart(this, bound);
+    }
+
+    private static <T> T intern(Map<PartKey, T> map, PartKey key, T value) {
+        if (map.size() >= MAX_INTERNED_PARTS) {
+            Iterator<PartKey> it = map.keySet().iterator();
+            for (int i = 0; i < MAX_INTERNED_PARTS / 4 && it.hasNext(); i++) {
+                it.next();
+                it.remove();
+            }
+        }
+        T existing = map.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * Returns the canonical spelling of a section, so that sections which
+     * only differ in spelling compile to the same part.  The canonical
+     * spelling:
+     * <ul>
+     * <li>writes the color and <tt>General</tt> capitalized, as in
+     * <tt>[Red]</tt>;</li>
+     * <li>drops the leading locale id, as in <tt>[$-409]</tt>, which is
+     * ignored anyway;</li>
+     * <li>writes a currency as <tt>[$&euro;]</tt> instead of
+     * <tt>[$&euro;-407]</tt>, and a default currency as <tt>[$$]</tt>;</li>
+     * <li>writes a quoted punctuation character, as in <tt>"-"</tt>, as a
+     * quoted single character, <tt>\-</tt>.</li>
+     * </ul>
+     * A section that is not a valid format is returned as it is.
+     *
+     * @param desc The section text.
+     *
+     * @return The canonical section text.
+     */
+    static String canonicalize(String desc) {
+        Matcher matcher = FORMAT_PAT.matcher(desc);
+        if (!matcher.matches()) {
+            return desc;
+        }
+        StringBuilder sb = new StringBuilder(desc.length());
+        String cdesc = matcher.group(COLOR_GROUP);
+        if (cdesc != null && cdesc.length() > 0) {
+            sb.append('[').append(Character.toUpperCase(cdesc.charAt(0)))
+                    .append(cdesc.substring(1).toLowerCase(Locale.ROOT)).append(']');
+        }
+        String operator = matcher.group(CONDITION_OPERATOR_GROUP);
+        if (operator != null && operator.length() > 0) {
+            sb.append('[').append(operator).append(matcher.group(CONDITION_VALUE_GROUP)).append(']');
+        }
+        String fdesc = matcher.group(SPECIFICATION_GROUP);
+        if ("General".equalsIgnoreCase(fdesc)) {
+            return sb.append("General").toString();
+        }
+        return sb.append(canonicalSpecification(fdesc)).toString();
+    }
+
+    private static String canonicalSpecification(String fdesc) {
+        Matcher currencyM = CURRENCY_PAT.matcher(fdesc);
+        if (currencyM.find()) {
+            String currencyPart = currencyM.group(1);
+            int dash = currencyPart.lastIndexOf('-');
+            if (dash >= 0 && fdesc.indexOf(currencyPart, currencyM.end()) < 0) {
+                // The same currency sign as getFormatter() finds
+                String currencyRepl = dash == 2 ? "$" : currencyPart.substring(2, dash);
+                if (currencyRepl.indexOf('-') < 0 && currencyRepl.indexOf(']') < 0) {
+                    fdesc = fdesc.substring(0, currencyM.start()) + "[$" + currencyRepl + ']'
+                            + fdesc.substring(currencyM.end());
+                }
+            }
+        }
+
+        if (fdesc.indexOf('"') < 0) {
+            return fdesc;
+        }
+        StringBuilder sb = new StringBuilder(fdesc.length());
+        Matcher matcher = SPECIFICATION_PAT.matcher(fdesc);
+        while (matcher.find()) {
+            String part = matcher.group(0);
+            if (part.length() == 3 && part.charAt(0) == '"' && QUOTABLE_CHARS.indexOf(part.charAt(1)) >= 0) {
+                sb.append('\\').append(part.charAt(1));
+            } else {
+                sb.append(part);
+            }
+        }
+        return sb.toString();
+    }
+
     /**
      * Create an object to represent a format part.
      *
@@ -191,6 +428,66 @@ public class FormatPart {
         this.condition = this.getCondition(matcher);
         this.type = this.getCellFormatType(matcher);
         this.format = this.getFormatter(locale, matcher);
+        this.hidden = false;
+        this.constantResult = foldConstant(this.format, this.color);
+    }
+
+    /**
+     * Creates a part like another one, with a formatter for another locale or
+     * date system.  The color, condition and type do not depend on them.
+     */
+    private FormatPart(FormatPart part, ValueFormatter format) {
+        this.color = part.color;
+        this.colorString = part.colorString;
+        this.condition = part.condition;
+        this.conditionString = part.conditionString;
+        this.currencySign = part.currencySign;
+        this.type = part.type;
+        this.format = format;
+        this.hidden = part.hidden;
+        this.constantResult = foldConstant(format, color);
+    }
+
+    /**
+     * Creates the part of an empty section, which hides the values it applies
+     * to.
+     */
+    private FormatPart() {
+        this.color = null;
+        this.type = FormatType.TEXT;
+        this.format = new TextFormatter("");
+        this.hidden = true;
+        this.constantResult = foldConstant(this.format, null);
+    }
+
+    /**
+     * Returns the part of an empty section, such as the sections of
+     * <tt>;;;</tt>.  It formats every value as an empty string.
+     *
+     * @return The part of an empty section.
+     */
+    static FormatPart hidden() {
+        return HIDDEN;
+    }
+
+    /**
+     * Returns the result of the formatter if it does not depend on the value
+     * at all, which is the case for text without "@", or <tt>null</tt>.
+     */
+    private static PoiResult foldConstant(ValueFormatter format, Integer color) {
+        if (format instanceof TextFormatter && ((TextFormatter) format).isConstant()) {
+            return new PoiResult(((TextFormatter) format).desc, color);
+        }
+        return null;
+    }
+
+    /**
+     * Returns <tt>true</tt> if this is the part of an empty section.
+     *
+     * @return <tt>true</tt> if this part hides the values it applies to.
+     */
+    boolean isHidden() {
+        return hidden;
     }
 
     /**
@@ -258,7 +555,8 @@ public class FormatPart {
         }
         Integer newColor = NAMED_COLORS.get(cdesc);
         if (newColor == null) {
-            ValueFormatter.logger.warning("Unknown color: " + ValueFormatter.quote(cdesc));
+            FormatDiagnostics.report(FormatDiagnostics.Kind.UNKNOWN_COLOR, matcher.group(0),
+                    "Unknown color: " + ValueFormatter.quote(cdesc));
         }
 
         return new ColorData(newColor, '[' + cdesc + ']');
@@ -487,6 +785,9 @@ public class FormatPart {
      */
     public PoiResult apply(Object value) {
         boolean applies = applies(value);
+        if (applies && constantResult != null) {
+            return constantResult;
+        }
         String text;
         Integer textColor;
         if (applies) {
@@ -499,6 +800,116 @@ public class FormatPart {
         return new PoiResult(text, textColor);
     }
 
+    /**
+     * Applies this date part to a day and time without making a date object,
+     * see {@link DateFormatter#formatEpochDay}.
+     *
+     * @param epochDay    The day, as counted by
+     *                    {@link java.time.LocalDate#toEpochDay()}.
+     * @param secondOfDay The time of day in seconds.
+     *
+     * @return The result, or <tt>null</tt> if the part has to be applied to a
+     *         {@link LocalDateTime}.
+     */
+    PoiResult applyEpochDay(long epochDay, int secondOfDay) {
+        if (!(format instanceof DateFormatter)) {
+            return null;
+        }
+        if (constantResult != null) {
+            return constantResult;
+        }
+        StringBuffer sb = new StringBuffer();
+        if (!((DateFormatter) format).formatEpochDay(sb, epochDay, secondOfDay)) {
+            return null;
+        }
+        return new PoiResult(sb.toString(), color);
+    }
+
+    /**
+     * Apply this format part to the given value, writing the text straight
+     * into the buffer.
+     *
+     * @param out      The buffer to write to.
+     * @param value    The value to apply this format part to.
+     * @param encoding The encoding of the output.
+     *
+     * @return The number of bytes written.
+     */
+    public int formatTo(ByteBuffer out, Object value, ByteEncoding encoding) {
+        if (applies(value)) {
+            return format.formatTo(out, value, encoding);
+        }
+        return format.simpleFormatTo(out, value, encoding);
+    }
+
+    /**
+     * Apply this format part to the given value, reporting the result as
+     * typed runs.
+     *
+     * @param sink  The sink to report to.
+     * @param value The value to apply this format part to.
+     */
+    public void formatTo(FormatSink sink, Object value) {
+        if (applies(value)) {
+            if (color != null) {
+                sink.color(color);
+            }
+            format.formatTo(sink, value);
+        } else {
+            format.simpleFormatTo(sink, value);
+        }
+    }
+
+    /**
+     * Returns the length of the text of applying this format part to the
+     * number, without building the text if the formatter can tell it from the
+     * format alone.
+     *
+     * @param value The number to measure.
+     *
+     * @return The number of characters of the formatted value.
+     */
+    public int measure(double value) {
+        if (condition == null || condition.pass(value)) {
+            return constantResult != null ? constantResult.formatResult.length() : format.measure(value);
+        }
+        return format.simpleMeasure(value);
+    }
+
+    /**
+     * Returns the {@link POIFormat#displayHash(CharSequence, Integer)} of
+     * applying this format part to the number, without building a string.
+     *
+     * @param value The number.
+     *
+     * @return The hash of the text and color.
+     */
+    public long displayHash(double value) {
+        StringBuffer sb = ValueFormatter.scratchBuffer();
+        if (condition == null || condition.pass(value)) {
+            format.formatValue(sb, value);
+            return POIFormat.displayHash(sb, color);
+        }
+        format.simpleValue(sb, value);
+        return POIFormat.displayHash(sb, null);
+    }
+
+    /**
+     * Returns a key for the number such that numbers with equal keys get the
+     * same result from this format part.
+     *
+     * @param value The number.
+     *
+     * @return The key, or {@link POIFormat#NO_RENDER_KEY} if the key cannot
+     *         be told.
+     */
+    public long renderKey(double value) {
+        if (condition != null && !condition.pass(value)) {
+            return POIFormat.NO_RENDER_KEY;
+        }
+        return format.renderKey(value);
+    }
+
     public ValueFormatter getFormat() {
         return format;
     }
@@ -507,6 +918,23 @@ public class FormatPart {
         return format.getNumberOfDecimalPlaces();
     }
 
+    public double getPercentScale() {
+        return format.getPercentScale();
+    }
+
+    public boolean isGrouping() {
+        return format.isGrouping();
+    }
+
+    /**
+     * Returns <tt>true</tt> if this format part shows values in a color.
+     *
+     * @return <tt>true</tt> if this format part has a known color.
+     */
+    boolean hasColor() {
+        return color != null;
+    }
+
     /**
      * Returns the FormatType object implied by the format specification for
      * the format part.
@@ -545,6 +973,7 @@ public class FormatPart {
         // For formats that don't use "'" we don't do any of this
         Matcher matcher = SPECIFICATION_PAT.matcher(fdesc);
         StringBuffer fmt = new StringBuffer();
+        boolean layoutMarks = usesLayoutMarks(fdesc);
         while (matcher.find()) {
             String part = group(matcher, 0);
 
@@ -577,10 +1006,8 @@ public class FormatPart {
                             repl = quoteSpecial(part.substring(1), type);
                             break;
                         case '_':
-                            repl = " ";
-                            break;
-                        case '*': //!! We don't do this for real, we just put in 3 of them
-                            repl = expandChar(part);
+                        case '*':
+                            repl = layoutMark(part, layoutMarks);
                             break;
                         default:
                             repl = part;
@@ -609,6 +1036,93 @@ public class FormatPart {
         return fmt;
     }
 
+    /**
+     * Returns <tt>true</tt> if the description parsed from the format has
+     * padding and fill marks.  They are not used if the format itself has
+     * characters of the private use range of the marks.
+     *
+     * @param fdesc The format.
+     *
+     * @return <tt>true</tt> if the description has padding and fill marks.
+     */
+    static boolean usesLayoutMarks(String fdesc) {
+        if (fdesc.indexOf('_') < 0 && fdesc.indexOf('*') < 0) {
+            return false;
+        }
+        for (int i = 0; i < fdesc.length(); i++) {
+            if (isLayoutMark(fdesc.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the replacement of a padding (<tt>_x</tt>) or fill (<tt>*x</tt>)
+     * part.
+     *
+     * @param part        The part.
+     * @param layoutMarks If marks are used.
+     *
+     * @return The mark, or the flattened text if marks are not used or the
+     *         character cannot be encoded.
+     */
+    static String layoutMark(String part, boolean layoutMarks) {
+        boolean fill = part.charAt(0) == '*';
+        if (layoutMarks && part.length() == 2 && part.charAt(1) < LAYOUT_MARK_RANGE) {
+            return String.valueOf((char) ((fill ? FILL_MARK : PADDING_MARK) + part.charAt(1)));
+        }
+        //!! We don't do fill for real, we just put in 3 of them
+        return fill ? expandChar(part) : " ";
+    }
+
+    static boolean isLayoutMark(char ch) {
+        return ch >= PADDING_MARK && ch < FILL_MARK + LAYOUT_MARK_RANGE;
+    }
+
+    /**
+     * Replaces the padding and fill marks from the given position on with
+     * their flattened text: a space for padding, three copies of the character
+     * for fill.
+     *
+     * @param sb    The buffer.
+     * @param start The position to start from.
+     */
+    static void expandLayoutMarks(StringBuffer sb, int start) {
+        for (int i = start; i < sb.length(); i++) {
+            char ch = sb.charAt(i);
+            if (isLayoutMark(ch)) {
+                if (ch < FILL_MARK) {
+                    sb.setCharAt(i, ' ');
+                } else {
+                    char fill = (char) (ch - FILL_MARK);
+                    sb.setCharAt(i, fill);
+                    sb.insert(i + 1, fill).insert(i + 1, fill);
+                    i += 2;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the string with its padding and fill marks replaced by their
+     * flattened text.
+     *
+     * @param str The string.
+     *
+     * @return The flattened string.
+     */
+    static String expandLayoutMarks(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (isLayoutMark(str.charAt(i))) {
+                StringBuffer sb = new StringBuffer(str);
+                expandLayoutMarks(sb, i);
+                return sb.toString();
+            }
+        }
+        return str;
+    }
+
     /**
      * Expands a character. This is only partly done, because we don't have the
      * correct info.  In Excel, this would be expanded to fill the rest of the
@@ -0,0 +1,154 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Int ids of the formats of a {@link FormattingContext}, so that a cell or a
+ * column can hold an <tt>int</tt> instead of the format code, and get its
+ * format from an array, without a lock and without hashing the code.
+ * <p>
+ * An id stands for a locale and the canonical code of a format: its sections
+ * spelled as by {@link FormatPart#canonicalize(String)}, joined by ';', so
+ * that codes which only differ in spelling have one id.  Ids are given out
+ * from 1 up, in the order the formats are registered, and are only valid in
+ * the registry that gave them out.
+ * <p>
+ * The registry holds the formats it has ids for as long as its context
+ * lives, unlike the cache of the context, which drops formats that are not
+ * used.  Only formats that are registered explicitly, with
+ * {@link #register(Locale, String)} or {@link POIFormat#getId()}, get an id.
+ */
+public final class FormatRegistry {
+    /** The id of no format; the ids of formats start at 1. */
+    public static final int NO_ID = 0;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final FormattingContext context;
+    private final Map<Key, Integer> ids = new ConcurrentHashMap<>();
+    /**
+     * The format of each id.  It is replaced by a larger copy when it is
+     * full; the volatile write after setting a slot publishes the slot.
+     */
+    private volatile POIFormat[] formats = new POIFormat[INITIAL_CAPACITY];
+    /** The next id, guarded by this registry. */
+    private int nextId = NO_ID + 1;
+
+    FormatRegistry(FormattingContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns the id of a format, creating the format in the context of this
+     * registry if it is not cached; see
+     * {@link FormattingContext#getFormat(Locale, String)}.
+     *
+     * @param locale The locale.
+     * @param format The format code.
+     *
+     * @return The id, for {@link #get(int)}.
+     */
+    public int register(Locale locale, String format) {
+        return register(context.getFormat(locale, format));
+    }
+
+    /**
+     * Returns the id of a format of the context of this registry, giving it
+     * a new one if no format of its locale and canonical code has one.
+     */
+    int register(POIFormat format) {
+        Key key = new Key(format.getLocale(), format.getCanonicalCode());
+        Integer id = ids.get(key);
+        return id != null ? id : assign(key, format);
+    }
+
+    private synchronized int assign(Key key, POIFormat format) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            return id;
+        }
+        int newId = nextId++;
+        POIFormat[] current = formats;
+        if (newId >= current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[newId] = format;
+        formats = current;
+        ids.put(key, newId);
+        return newId;
+    }
+
+    /**
+     * Returns the format of an id.
+     *
+     * @param id The id of a format, from {@link #register(Locale, String)}
+     *           or {@link POIFormat#getId()}.
+     *
+     * @return The format.
+     *
+     * @throws IllegalArgumentException if no format has the id.
+     */
+    public POIFormat get(int id) {
+        POIFormat[] current = formats;
+        POIFormat result = id > NO_ID && id < current.length ? current[id] : null;
+        if (result == null) {
+            throw new IllegalArgumentException("Unknown format id: " + id);
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of ids given out.
+     */
+    public synchronized int size() {
+        return nextId - 1;
+    }
+
+    private static final class Key {
+        final Locale locale;
+        final String code;
+
+        Key(Locale locale, String code) {
+            this.locale = locale;
+            this.code = code;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return locale.equals(that.locale) && code.equals(that.code);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * locale.hashCode() + code.hashCode();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+/**
+ * Receives the result of applying a format as a sequence of typed runs, in
+ * output order.  Unlike the flattened text returned by
+ * {@link POIFormat#apply(Object)}, padding (<tt>_x</tt>) and fill
+ * (<tt>*x</tt>) are reported as such, so a renderer can lay out a cell
+ * without reparsing its text.
+ * <p>
+ * The character sequences passed to {@link #literal} and {@link #digits} are
+ * only valid during the call, and the sink must not format other values on
+ * the same thread from within a callback.
+ */
+public interface FormatSink {
+
+    /**
+     * Called once, before any run, if the applied format part has a color.
+     *
+     * @param argb The color.
+     */
+    void color(int argb);
+
+    /**
+     * Text that is not a number: quoted and escaped text, currency signs,
+     * names of months and days, and text values.
+     *
+     * @param text  The characters.
+     * @param start The index of the first character of the run.
+     * @param end   The index after the last character of the run.
+     */
+    void literal(CharSequence text, int start, int end);
+
+    /**
+     * A run of digits, including the decimal and grouping separators between
+     * them.
+     *
+     * @param text  The characters.
+     * @param start The index of the first character of the run.
+     * @param end   The index after the last character of the run.
+     */
+    void digits(CharSequence text, int start, int end);
+
+    /**
+     * A space as wide as the given character (<tt>_x</tt>).
+     *
+     * @param widthOf The character whose width the space takes.
+     */
+    void padding(char widthOf);
+
+    /**
+     * A place where the given character is repeated to fill the rest of the
+     * cell (<tt>*x</tt>).  The flattened text has three copies of it instead.
+     *
+     * @param fill The fill character.
+     */
+    void fill(char fill);
+}
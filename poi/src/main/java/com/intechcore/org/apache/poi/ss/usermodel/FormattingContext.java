@@ -0,0 +1,400 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import com.intechcore.org.apache.poi.util.BuiltinFormats;
+import com.intechcore.poi.bridge.BridgeContainer;
+import com.intechcore.poi.bridge.IDateTimeUtilsBridge;
+import com.intechcore.poi.bridge.IValueFormatDetectorBridge;
+import com.intechcore.poi.bridge.IValueFormatDetectorStorageBridge;
+import com.intechcore.poi.bridge.SerialDates;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What formatting depends on besides the format code and the locale: the
+ * date system, the date utilities and the format detectors, and the cache of
+ * the formats made with them.  Workbooks with different date systems can be
+ * formatted at the same time with a context each.
+ * <p>
+ * The {@link #getDefault() default context} takes everything from
+ * {@link BridgeContainer}; it is what {@link POIFormat#getInstance(Locale, String)}
+ * uses.
+ */
+public final class FormattingContext {
+    private static final FormattingContext DEFAULT = new FormattingContext(null, null, null);
+
+    /** The most date parts {@link #bind(FormatPart)} remembers. */
+    private static final int MAX_BOUND_PARTS = 4096;
+    /** The most detectors {@link #getDetector} remembers for a locale. */
+    private static final int MAX_DETECTORS = 4096;
+
+    private final LocalDateTime startDate;
+    private final IDateTimeUtilsBridge dateTimeUtils;
+    private final IValueFormatDetectorStorageBridge detectorStorage;
+
+    private final Map<Locale, Map<String, POIFormat>> formatCache = new WeakHashMap<>();
+    /** The built-in formats of each locale, by numFmtId. */
+    private final Map<Locale, POIFormat[]> builtinFormats = new ConcurrentHashMap<>();
+    /** The shared parts, by identity, and the same parts for {@link #startDate}. */
+    private final Map<FormatPart, FormatPart> boundParts = new ConcurrentHashMap<>();
+    private final FormatRegistry registry = new FormatRegistry(this);
+    /** The detectors of the current detector storage. */
+    private volatile DetectorMemo detectors;
+
+    /**
+     * Creates a context.  Whatever is <tt>null</tt> is taken from
+     * {@link BridgeContainer} when it is needed.
+     *
+     * @param startDate       The date of the serial number 0, which gives the
+     *                        date system.
+     * @param dateTimeUtils   The conversion of dates to serial numbers, e.g.
+     *                        {@link SerialDates#DATE_1904}.
+     * @param detectorStorage The source of the format detectors.
+     */
+    public FormattingContext(LocalDateTime startDate, IDateTimeUtilsBridge dateTimeUtils,
+                             IValueFormatDetectorStorageBridge detectorStorage) {
+        this.startDate = startDate;
+        this.dateTimeUtils = dateTimeUtils;
+        this.detectorStorage = detectorStorage;
+    }
+
+    /**
+     * @return The context that takes everything from {@link BridgeContainer}.
+     */
+    public static FormattingContext getDefault() {
+        return DEFAULT;
+    }
+
+    public LocalDateTime getStartDate() {
+        return startDate != null ? startDate : BridgeContainer.getStartDate1904();
+    }
+
+    /**
+     * Returns the conversion of dates to serial numbers: the one of the
+     * context, else the one of {@link BridgeContainer}, else the built-in
+     * {@link SerialDates#DATE_1900}.
+     *
+     * @return The conversion of dates to serial numbers.
+     */
+    public IDateTimeUtilsBridge getDateTimeUtils() {
+        if (dateTimeUtils != null) {
+            return dateTimeUtils;
+        }
+        IDateTimeUtilsBridge bridge = BridgeContainer.getDateTimeUtils();
+        return bridge != null ? bridge : SerialDates.DATE_1900;
+    }
+
+    public IValueFormatDetectorStorageBridge getDetectorStorage() {
+        return detectorStorage != null ? detectorStorage : BridgeContainer.getDetectorStorage();
+    }
+
+    /**
+     * Returns the detector of a format from {@link #getDetectorStorage()},
+     * which is asked once per locale and code.  Nothing is locked: threads
+     * that race for the same code may both ask the storage, and the first
+     * detector is kept.
+     *
+     * @param locale The locale.
+     * @param format The format code.
+     *
+     * @return The detector.
+     */
+    IValueFormatDetectorBridge getDetector(Locale locale, String format) {
+        IValueFormatDetectorStorageBridge storage = getDetectorStorage();
+        DetectorMemo memo = detectors;
+        if (memo == null || memo.storage != storage) {
+            // another storage set in BridgeContainer starts over
+            memo = new DetectorMemo(storage);
+            detectors = memo;
+        }
+        Map<String, IValueFormatDetectorBridge> byCode = memo.byLocale.computeIfAbsent(locale,
+                k -> new ConcurrentHashMap<>());
+        IValueFormatDetectorBridge detector = byCode.get(format);
+        if (detector == null) {
+            detector = storage.getDetectorBridge(locale, format);
+            if (detector != null) {
+                if (byCode.size() >= MAX_DETECTORS) {
+                    byCode.clear();
+                }
+                IValueFormatDetectorBridge existing = byCode.putIfAbsent(format, detector);
+                if (existing != null) {
+                    detector = existing;
+                }
+            }
+        }
+        return detector;
+    }
+
+    /**
+     * @return The int ids of the formats of this context.
+     */
+    public FormatRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns a {@link POIFormat} of this context that applies the given
+     * format.  Two calls with the same format may or may not return the same
+     * object.
+     * <p>
+     * A format that is not cached is made without the lock, so that the
+     * detector storage is not asked under it; if another thread caches the
+     * format first, that one is returned.
+     *
+     * @param locale The locale.
+     * @param format The format.
+     *
+     * @return A {@link POIFormat} that applies the given format.
+     */
+    public POIFormat getFormat(Locale locale, String format) {
+        POIFormat parsed;
+        synchronized (this) {
+            POIFormat result = getCached(locale, format);
+            if (result != null) {
+                return result;
+            }
+            parsed = findParsed(format);
+        }
+        return cache(locale, format, make(parsed, locale, format));
+    }
+
+    /**
+     * Makes a format for the locale.  A format of the code in another locale
+     * is bound to the locale without parsing the code again, unless the
+     * detector of the locale decides otherwise whether the code is General.
+     *
+     * @param parsed The format of the code in another locale, or
+     *               <tt>null</tt>.
+     */
+    private POIFormat make(POIFormat parsed, Locale locale, String format) {
+        if (parsed != null
+                && getDetector(locale, format).isGeneral() == parsed instanceof POIFormat.GeneralPOIFormat) {
+            return parsed.rebind(locale);
+        }
+        return POIFormat.create(this, locale, format);
+    }
+
+    /**
+     * Returns the cached format, or <tt>null</tt>.  The caller holds the
+     * lock.
+     */
+    private POIFormat getCached(Locale locale, String format) {
+        Map<String, POIFormat> formatMap = formatCache.get(locale);
+        return formatMap != null ? formatMap.get(format) : null;
+    }
+
+    /**
+     * Caches a format, unless one is cached already.
+     *
+     * @return The cached format.
+     */
+    private synchronized POIFormat cache(Locale locale, String format, POIFormat made) {
+        Map<String, POIFormat> formatMap = formatCache.computeIfAbsent(locale, k -> new WeakHashMap<>());
+        POIFormat result = formatMap.get(format);
+        if (result == null) {
+            result = made;
+            formatMap.put(format, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a {@link POIFormat} of this context for a built-in format, see
+     * {@link BuiltinFormats}.  The first call for a locale compiles all the
+     * built-in formats, see {@link #compileAll}; after that the format is
+     * looked up by the id without parsing the code.
+     *
+     * @param locale   The locale.
+     * @param numFmtId The id of the built-in format.
+     *
+     * @return The format, or <tt>null</tt> if the id has no built-in code.
+     */
+    public POIFormat getBuiltinFormat(Locale locale, int numFmtId) {
+        if (numFmtId < 0 || numFmtId >= BuiltinFormats.BUILTIN_ID_COUNT) {
+            return null;
+        }
+        POIFormat[] formats = builtinFormats.get(locale);
+        if (formats == null) {
+            formats = compileBuiltinFormats(locale);
+            POIFormat[] existing = builtinFormats.putIfAbsent(locale, formats);
+            if (existing != null) {
+                formats = existing;
+            }
+        }
+        return formats[numFmtId];
+    }
+
+    private POIFormat[] compileBuiltinFormats(Locale locale) {
+        String[] codes = new String[BuiltinFormats.BUILTIN_ID_COUNT];
+        for (int id = 0; id < codes.length; id++) {
+            codes[id] = BuiltinFormats.getBuiltinFormat(id);
+        }
+        compileAll(locale, Arrays.asList(codes));
+
+        POIFormat[] formats = new POIFormat[codes.length];
+        for (int id = 0; id < codes.length; id++) {
+            if (codes[id] != null) {
+                formats[id] = getFormat(locale, codes[id]);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * Returns the format with the code in any locale, or <tt>null</tt> if it
+     * is not cached.  The caller holds the lock.
+     */
+    private POIFormat findParsed(String format) {
+        for (Map<String, POIFormat> formatMap : formatCache.values()) {
+            POIFormat parsed = formatMap.get(format);
+            if (parsed != null) {
+                return parsed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached format for the locale, or caches the format for the
+     * locale made from another one, see {@link POIFormat#withLocale(Locale)}.
+     */
+    POIFormat rebind(POIFormat format, Locale locale, String formatCode) {
+        POIFormat result;
+        synchronized (this) {
+            result = getCached(locale, formatCode);
+        }
+        return result != null ? result : cache(locale, formatCode, make(format, locale, formatCode));
+    }
+
+    /**
+     * Compiles the format codes of a workbook up front.  Duplicate codes are
+     * compiled once, codes that are already cached are skipped, and the rest
+     * are compiled with all their sections in parallel on the common
+     * fork/join pool, without holding the lock of {@link #getFormat}.  The
+     * results are then put into the cache in one step, after which
+     * {@link #getFormat} returns them.
+     *
+     * @param locale      The locale.
+     * @param formatCodes The format codes, e.g. of the numFmt table of a
+     *                    workbook.
+     *
+     * @return The compile time of each code and the failures.
+     */
+    public FormatCompileReport compileAll(Locale locale, Collection<String> formatCodes) {
+        Set<String> unique = new LinkedHashSet<>(formatCodes);
+        unique.remove(null);
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            Map<String, POIFormat> formatMap = formatCache.get(locale);
+            for (String code : unique) {
+                if (formatMap == null || !formatMap.containsKey(code)) {
+                    missing.add(code);
+                }
+            }
+        }
+
+        Map<String, POIFormat> compiled = new ConcurrentHashMap<>();
+        Map<String, Long> nanos = new ConcurrentHashMap<>();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        missing.parallelStream().forEach(code -> {
+            long start = System.nanoTime();
+            try {
+                POIFormat format = POIFormat.create(this, locale, code);
+                String invalid = format.compileParts();
+                if (invalid != null) {
+                    failures.put(code, "Invalid format: " + ValueFormatter.quote(invalid));
+                }
+                compiled.put(code, format);
+            } catch (RuntimeException e) {
+                failures.put(code, e.toString());
+            }
+            nanos.put(code, System.nanoTime() - start);
+        });
+
+        synchronized (this) {
+            Map<String, POIFormat> formatMap = formatCache.computeIfAbsent(locale, k -> new WeakHashMap<>());
+            compiled.forEach(formatMap::putIfAbsent);
+        }
+
+        // report in the order given
+        Map<String, Long> orderedNanos = new LinkedHashMap<>();
+        Map<String, String> orderedFailures = new LinkedHashMap<>();
+        for (String code : missing) {
+            orderedNanos.put(code, nanos.get(code));
+            if (failures.containsKey(code)) {
+                orderedFailures.put(code, failures.get(code));
+            }
+        }
+        return new FormatCompileReport(unique.size(), unique.size() - missing.size(), orderedNanos, orderedFailures);
+    }
+
+    /**
+     * Returns a shared part for the date system of this context.  The shared
+     * parts are made for the start date of {@link BridgeContainer}, so only a
+     * context with a start date of its own has to bind them.
+     *
+     * @param part The shared part, or <tt>null</tt>.
+     *
+     * @return The part for this context, or <tt>null</tt>.
+     */
+    FormatPart bind(FormatPart part) {
+        if (part == null || startDate == null) {
+            return part;
+        }
+        FormatPart bound = boundParts.get(part);
+        if (bound == null) {
+            if (boundParts.size() >= MAX_BOUND_PARTS) {
+                boundParts.clear();
+            }
+            bound = part.withStartDate(startDate);
+            FormatPart existing = boundParts.putIfAbsent(part, bound);
+            if (existing != null) {
+                bound = existing;
+            }
+        }
+        return bound;
+    }
+
+    /** The detectors of a detector storage, by locale and code. */
+    private static final class DetectorMemo {
+        final IValueFormatDetectorStorageBridge storage;
+        final Map<Locale, Map<String, IValueFormatDetectorBridge>> byLocale = new ConcurrentHashMap<>();
+
+        DetectorMemo(IValueFormatDetectorStorageBridge storage) {
+            this.storage = storage;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this == DEFAULT ? "FormattingContext[default]" : "FormattingContext[startDate=" + startDate + "]";
+    }
+}
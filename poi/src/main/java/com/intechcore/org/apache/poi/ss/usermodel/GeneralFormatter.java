@@ -23,6 +23,7 @@ package com.intechcore.org.apache.poi.ss.usermodel;
 
 import com.intechcore.org.apache.poi.util.FormatHelper;
 
+import java.math.BigDecimal;
 import java.util.Formatter;
 import java.util.Locale;
 
@@ -42,6 +43,11 @@ public class GeneralFormatter extends ValueFormatter {
         super(locale, FormatHelper.GENERAL_CODE);
     }
 
+    @Override
+    protected ValueFormatter withLocale(Locale locale) {
+        return locale.equals(this.locale) ? this : new GeneralFormatter(locale);
+    }
+
     /**
      * The general style is not quite the same as any other, or any combination
      * of others.
@@ -69,8 +75,10 @@ public class GeneralFormatter extends ValueFormatter {
                 stripZeros = false;
             }
 
+            // %f takes no integer types; integers written in full are below
+            // 10^10, so their double is exact
             try (Formatter formatter = new Formatter(toAppendTo, locale)) {
-                formatter.format(locale, fmt, value);
+                formatter.format(locale, fmt, value instanceof BigDecimal ? value : val);
             }
             if (stripZeros) {
                 // strip off trailing zeros
@@ -0,0 +1,260 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.ss.usermodel;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.time.DayOfWeek;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The symbols of a locale that the formatters use: separators, the minus
+ * sign, and the names of months, days and AM/PM.  Looking them up through
+ * {@link DecimalFormatSymbols} and {@link DateFormatSymbols} each time is
+ * slow, so they are read once per locale and shared by all formatters.
+ * Profiles are immutable.
+ */
+public final class LocaleProfile {
+    private static final Map<Locale, LocaleProfile> PROFILES = new ConcurrentHashMap<>();
+
+    private final Locale locale;
+    private final DecimalFormatSymbols decimalFormatSymbols;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char minusSign;
+    private final char zeroDigit;
+    private final String decimalSeparatorString;
+    private final String groupingSeparatorString;
+    private final String[] months;
+    private final String[] shortMonths;
+    private final String[] standaloneMonths;
+    private final String[] shortStandaloneMonths;
+    private final String[] weekdays;
+    private final String[] shortWeekdays;
+    private final String[] amPmStrings;
+    /** The formatter of {@link NumberFormatter#simpleValue}, made on first use. */
+    private volatile ValueFormatter simpleNumberFormatter;
+
+    private LocaleProfile(Locale locale) {
+        this.locale = locale;
+        this.decimalFormatSymbols = DecimalFormatSymbols.getInstance(locale);
+        this.decimalSeparator = decimalFormatSymbols.getDecimalSeparator();
+        this.groupingSeparator = decimalFormatSymbols.getGroupingSeparator();
+        this.minusSign = decimalFormatSymbols.getMinusSign();
+        this.zeroDigit = decimalFormatSymbols.getZeroDigit();
+        this.decimalSeparatorString = Character.toString(decimalSeparator);
+        this.groupingSeparatorString = Character.toString(groupingSeparator);
+
+        DateFormatSymbols dateFormatSymbols = DateFormatSymbols.getInstance(locale);
+        this.months = dateFormatSymbols.getMonths();
+        this.shortMonths = dateFormatSymbols.getShortMonths();
+        this.standaloneMonths = standaloneMonths(locale, Calendar.LONG_STANDALONE, months);
+        this.shortStandaloneMonths = standaloneMonths(locale, Calendar.SHORT_STANDALONE, shortMonths);
+        this.weekdays = dateFormatSymbols.getWeekdays();
+        this.shortWeekdays = dateFormatSymbols.getShortWeekdays();
+        this.amPmStrings = dateFormatSymbols.getAmPmStrings();
+    }
+
+    /**
+     * Returns the profile of a locale.  All callers share one profile per
+     * locale.
+     *
+     * @param locale The locale.
+     *
+     * @return The profile.
+     */
+    public static LocaleProfile of(Locale locale) {
+        LocaleProfile profile = PROFILES.get(locale);
+        if (profile == null) {
+            profile = PROFILES.computeIfAbsent(locale, LocaleProfile::new);
+        }
+        return profile;
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Returns the formatter that all number formatters of the locale share
+     * for {@link NumberFormatter#simpleValue}.  It cannot be made with the
+     * profile, as number formatters look up the profile.
+     *
+     * @return The formatter.
+     */
+    ValueFormatter getSimpleNumberFormatter() {
+        ValueFormatter result = simpleNumberFormatter;
+        if (result == null) {
+            // racing threads make equal formatters, of which one is kept
+            result = new NumberFormatter.GeneralNumberFormatter(locale);
+            simpleNumberFormatter = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return A copy of the decimal format symbols of the locale.
+     */
+    public DecimalFormatSymbols getDecimalFormatSymbols() {
+        return (DecimalFormatSymbols) decimalFormatSymbols.clone();
+    }
+
+    public char getDecimalSeparator() {
+        return decimalSeparator;
+    }
+
+    public char getGroupingSeparator() {
+        return groupingSeparator;
+    }
+
+    public char getMinusSign() {
+        return minusSign;
+    }
+
+    public char getZeroDigit() {
+        return zeroDigit;
+    }
+
+    /**
+     * @return The decimal separator as a string.
+     */
+    public String getDecimalSeparatorString() {
+        return decimalSeparatorString;
+    }
+
+    /**
+     * @return The grouping separator as a string.
+     */
+    public String getGroupingSeparatorString() {
+        return groupingSeparatorString;
+    }
+
+    /**
+     * @param month The month, from 1 (January) to 12.
+     *
+     * @return The full name of the month.
+     */
+    public String getMonthName(int month) {
+        return months[month - 1];
+    }
+
+    /**
+     * @param month The month, from 1 (January) to 12.
+     *
+     * @return The abbreviated name of the month.
+     */
+    public String getShortMonthName(int month) {
+        return shortMonths[month - 1];
+    }
+
+    /**
+     * @param month The month, from 1 (January) to 12.
+     *
+     * @return The full name of the month on its own, e.g. as a title; in
+     *         some languages it differs from the name in a date.
+     */
+    public String getStandaloneMonthName(int month) {
+        return standaloneMonths[month - 1];
+    }
+
+    /**
+     * @param month The month, from 1 (January) to 12.
+     *
+     * @return The abbreviated name of the month on its own.
+     */
+    public String getShortStandaloneMonthName(int month) {
+        return shortStandaloneMonths[month - 1];
+    }
+
+    /**
+     * @param day The day of the week.
+     *
+     * @return The full name of the day.
+     */
+    public String getDayName(DayOfWeek day) {
+        return weekdays[calendarDay(day)];
+    }
+
+    /**
+     * @param day The day of the week.
+     *
+     * @return The abbreviated name of the day.
+     */
+    public String getShortDayName(DayOfWeek day) {
+        return shortWeekdays[calendarDay(day)];
+    }
+
+    /**
+     * @param pm <tt>true</tt> for the afternoon.
+     *
+     * @return The AM or PM marker of the locale.
+     */
+    public String getAmPm(boolean pm) {
+        return amPmStrings[pm ? Calendar.PM : Calendar.AM];
+    }
+
+    /**
+     * Replaces the <tt>,</tt> and <tt>.</tt> of a number format with the
+     * separators of the locale.  If the format has both, the last <tt>.</tt>
+     * is the decimal separator.
+     *
+     * @param format The format, with <tt>,</tt> and <tt>.</tt>.
+     *
+     * @return The format with the separators of the locale.
+     */
+    public String localizeNumberFormat(String format) {
+        if (format.indexOf(',') >= 0 && groupingSeparator != ',') {
+            int decimal = format.lastIndexOf('.');
+            if (decimal >= 0 && decimalSeparator != '.') {
+                return format.substring(0, decimal).replace(',', groupingSeparator) + decimalSeparator
+                        + format.substring(decimal + 1).replace(',', groupingSeparator);
+            } else {
+                return format.replace(',', groupingSeparator);
+            }
+        } else if (format.indexOf('.') >= 0 && decimalSeparator != '.') {
+            return format.replace('.', decimalSeparator);
+        }
+        return format;
+    }
+
+    private static String[] standaloneMonths(Locale locale, int style, String[] formatNames) {
+        Calendar calendar = Calendar.getInstance(locale);
+        String[] names = new String[12];
+        for (int i = 0; i < names.length; i++) {
+            calendar.clear();
+            calendar.set(2000, Calendar.JANUARY + i, 1);
+            String name = calendar.getDisplayName(Calendar.MONTH, style, locale);
+            names[i] = name != null ? name : formatNames[i];
+        }
+        return names;
+    }
+
+    private static int calendarDay(DayOfWeek day) {
+        // Calendar counts from SUNDAY = 1, DayOfWeek from MONDAY = 1
+        return day.getValue() % 7 + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LocaleProfile[" + locale + "]";
+    }
+}
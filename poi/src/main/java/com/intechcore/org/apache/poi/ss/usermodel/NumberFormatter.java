@@ -21,6 +21,9 @@
 ==================================================================== */
 package com.intechcore.org.apache.poi.ss.usermodel;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.FieldPosition;
@@ -40,38 +43,61 @@ import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import com.intechcore.org.apache.poi.util.FormatHelper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * This class implements printing out a value using a number format.
  */
 public class NumberFormatter extends ValueFormatter {
 
-    private static final Logger LOG = LoggerFactory.getLogger(NumberFormatter.class);
-
     private static final Pattern fractionStripper = Pattern.compile("(\"[^\"]*\")|([^ ?#\\d/]+)");
     private static final Pattern fractionPattern = Pattern.compile("(?:([#\\d]+)\\s+)?(#+)\\s*/\\s*([#\\d]+)");
     private static final Pattern onlyDigitPattern = Pattern.compile("^[0-9]+$");
     private static final Pattern onlySpacesPattern = Pattern.compile(" +");
 
     protected final String desc;
+    /** {@link #desc} with the separators of the locale, see {@link #localiseFormat(String)}. */
+    private final String localizedDesc;
+    /** The symbols of the locale, shared by all formatters of the locale. */
+    protected final LocaleProfile localeProfile;
     protected final String printfFmt;
+    /**
+     * The width <tt>printfFmt</tt> pads to if it writes integers only, else
+     * -1.
+     */
+    private final int integerPrintfWidth;
     protected final double scale;
-    protected final Special decimalPoint;
-    protected final Special slash;
-    protected final Special exponent;
-    protected final Special numerator;
-    protected final Special afterInteger;
-    protected final Special afterFractional;
+    /**
+     * The power of ten of {@link #scale}: 2 for each '%' and -3 for each
+     * scaling comma.  The digits are scaled by moving the decimal point of the
+     * value, so that they round like the scaled value written out.
+     */
+    private final int scaleExponent;
+    private final double percentScale;
     protected final boolean showGroupingSeparator;
-    protected final List<Special> specials = new ArrayList<>();
-    protected final List<Special> integerSpecials = new ArrayList<>();
-    protected final List<Special> fractionalSpecials = new ArrayList<>();
-    protected final List<Special> numeratorSpecials = new ArrayList<>();
-    protected final List<Special> denominatorSpecials = new ArrayList<>();
-    protected final List<Special> exponentSpecials = new ArrayList<>();
-    protected final List<Special> exponentDigitSpecials = new ArrayList<>();
+    /**
+     * The special characters of <tt>desc</tt> in order, packed: the character
+     * and its position in <tt>desc</tt>.  The parts of the format are ranges
+     * of these, from an index to an end index (exclusive); the integer part
+     * starts at 0.
+     */
+    private final char[] specialChars;
+    private final int[] specialPositions;
+    /** The index of the special, or -1 if the format does not have it. */
+    private final int decimalPoint;
+    private final int slash;
+    private final int exponent;
+    private final int numerator;
+    private final int integerEnd;
+    private final int fractionalStart;
+    private final int fractionalEnd;
+    private final int numeratorStart;
+    private final int numeratorEnd;
+    private final int denominatorStart;
+    private final int denominatorEnd;
+    /** The range of the exponent: the 'e', its sign and its digits. */
+    private final int exponentStart;
+    private final int exponentDigitStart;
+    private final int exponentDigitEnd;
     protected final int maxDenominator;
     private boolean concreteDenominator;
     protected final String numeratorFmt;
@@ -80,19 +106,51 @@ public class NumberFormatter extends ValueFormatter {
     protected final DecimalFormat decimalFmt;
     private FractionFormat fractionFormat;
     private int scalesCount;
+    private final boolean layoutMarks;
+    /**
+     * The number of integer digits <tt>printfFmt</tt> pads to, or -1 if
+     * {@link #measure(double)} has to format the value to know its length.
+     */
+    private final int measureIntegerWidth;
+    /** The length of the text around the digits, with fills expanded. */
+    private final int measureLiteralLength;
+    /**
+     * <tt>true</tt> if the length can be measured without formatting, which
+     * also needs the locale to write the ASCII digits.
+     */
+    private final boolean measurable;
+    private final boolean fractionalHashes;
+    /**
+     * <tt>true</tt> for the built-in shapes <tt>0</tt> and <tt>#,##0</tt>,
+     * with zeros after the decimal point and a '%', which are written without
+     * printf, see {@link #writePlain}; the locale has to write ASCII digits.
+     */
+    private final boolean plain;
+
+    private static final Pattern PLAIN_FORMAT = Pattern.compile("(?:0|#,##0)(?:\\.0{1,14})?%?");
 
-    // The NumberFormatter.simpleValue() method uses the SIMPLE_NUMBER
-    // ValueFormatter defined here. The CellFormat.GENERAL_FORMAT CellFormat
-    // no longer uses the SIMPLE_NUMBER ValueFormatter.
-    // Note that the simpleValue()/SIMPLE_NUMBER ValueFormatter format
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L
+    };
+
+    // The NumberFormatter.simpleValue() method uses the GeneralNumberFormatter
+    // defined here. The CellFormat.GENERAL_FORMAT CellFormat no longer uses it.
+    // Note that the simpleValue()/GeneralNumberFormatter format
     // ("#" for integer values, and "#.#" for floating-point values) is
     // different from the 'General' format for numbers ("#" for integer
     // values and "#.#########" for floating-point values).
-    protected final ValueFormatter simpleNumber = new GeneralNumberFormatter(locale);
-
+    // One is shared by all number formatters of a locale, see
+    // LocaleProfile.getSimpleNumberFormatter().
     protected static class GeneralNumberFormatter extends ValueFormatter {
+        private final NumberFormatter integerFormatter;
+        private final NumberFormatter decimalFormatter;
+
         protected GeneralNumberFormatter(Locale locale) {
             super(locale, FormatHelper.GENERAL_CODE);
+            integerFormatter = new NumberFormatter(locale, "#");
+            decimalFormatter = new NumberFormatter(locale, "#.#");
         }
 
         public void formatValue(StringBuffer toAppendTo, Object value) {
@@ -103,8 +161,7 @@ public class NumberFormatter extends ValueFormatter {
             ValueFormatter cf;
             if (value instanceof Number) {
                 Number num = (Number) value;
-                cf = (num.doubleValue() % 1.0 == 0) ? new NumberFormatter(locale, "#") :
-                        new NumberFormatter(locale, "#.#");
+                cf = (num.doubleValue() % 1.0 == 0) ? integerFormatter : decimalFormatter;
             } else {
                 cf = TextFormatter.SIMPLE_TEXT;
             }
@@ -153,12 +210,18 @@ public class NumberFormatter extends ValueFormatter {
      */
     public NumberFormatter(Locale locale, String format) {
         super(locale, format);
+        localeProfile = LocaleProfile.of(locale);
 
+        layoutMarks = FormatPart.usesLayoutMarks(format);
         NumberPartHandler ph = new NumberPartHandler();
         StringBuffer descBuf = FormatPart.parseFormat(format, FormatType.NUMBER, ph);
 
-        exponent = ph.getExponent();
-        specials.addAll(ph.getSpecials());
+        // The specials are only objects while parsing, see specialChars
+        List<Special> specials = new ArrayList<>(ph.getSpecials());
+        Special exponent = ph.getExponent();
+        Special slash;
+        Special numerator;
+        Special decimalPoint;
         improperFraction = ph.isImproperFraction();
 
         // These are inconsistent settings, so ditch 'em
@@ -186,6 +249,7 @@ public class NumberFormatter extends ValueFormatter {
             decimalPoint = null;
         }
 
+        Special afterInteger;
         if (decimalPoint != null) {
             afterInteger = decimalPoint;
         } else if (exponent != null) {
@@ -196,6 +260,7 @@ public class NumberFormatter extends ValueFormatter {
             afterInteger = null;
         }
 
+        Special afterFractional;
         if (exponent != null) {
             afterFractional = exponent;
         } else if (numerator != null) {
@@ -206,36 +271,61 @@ public class NumberFormatter extends ValueFormatter {
 
         double[] scaleByRef = { ph.getScale() };
         int[] scalesCountRef = { 0 }; // TODO: we do not need ph.getScale() value ?
-        showGroupingSeparator = interpretIntegerCommas(descBuf, specials, decimalPoint, integerEnd(), fractionalEnd(),
-                scaleByRef, scalesCountRef);
+        showGroupingSeparator = interpretIntegerCommas(descBuf, specials, decimalPoint,
+                endOf(specials, afterInteger), endOf(specials, afterFractional), scaleByRef, scalesCountRef);
         if (exponent == null) {
             scale = scaleByRef[0];
+            scaleExponent = 2 * ph.getPercentCount() - 3 * scalesCountRef[0];
+            percentScale = ph.getScale();
             this.scalesCount = scalesCountRef[0];
         } else {
             // in "e" formats,% and trailing commas have no scaling effect
             scale = 1;
+            scaleExponent = 0;
+            percentScale = 1;
         }
 
+        integerEnd = endOf(specials, afterInteger);
+        fractionalEnd = endOf(specials, afterFractional);
         if (precision != 0) {
             // TODO: if decimalPoint is null (-> index == -1), return the whole list?
-            fractionalSpecials.addAll(specials.subList(specials.indexOf(decimalPoint) + 1, fractionalEnd()));
+            fractionalStart = specials.indexOf(decimalPoint) + 1;
+            if (fractionalStart > fractionalEnd) {
+                throw new IllegalArgumentException("Decimal point after the fraction digits in "
+                        + ValueFormatter.quote(format));
+            }
+        } else {
+            fractionalStart = fractionalEnd;
         }
 
         if (exponent != null) {
-            int exponentPos = specials.indexOf(exponent);
-            exponentSpecials.addAll(specialsFor(exponentPos, 2));
-            exponentDigitSpecials.addAll(specialsFor(exponentPos + 2));
+            exponentStart = specials.indexOf(exponent);
+            if (exponentStart + 2 >= specials.size()) {
+                throw new IllegalArgumentException("No digits after the exponent in " + ValueFormatter.quote(format));
+            }
+            exponentDigitStart = exponentStart + 2;
+            exponentDigitEnd = exponentDigitStart + specialsFor(specials, exponentDigitStart, 0).size();
+        } else {
+            exponentStart = -1;
+            exponentDigitStart = 0;
+            exponentDigitEnd = 0;
         }
 
+        List<Special> numeratorSpecials = Collections.emptyList();
+        List<Special> denominatorSpecials = Collections.emptyList();
+        int numeratorIndex = -1;
+        int denominatorIndex = -1;
         if (slash != null) {
             if (numerator != null) {
-                numeratorSpecials.addAll(specialsFor(specials.indexOf(numerator)));
+                numeratorIndex = specials.indexOf(numerator);
+                numeratorSpecials = specialsFor(specials, numeratorIndex, 0);
             }
 
-            denominatorSpecials.addAll(specialsFor(specials.indexOf(slash) + 1));
+            denominatorIndex = specials.indexOf(slash) + 1;
+            denominatorSpecials = specialsFor(specials, denominatorIndex, 0);
             if (denominatorSpecials.isEmpty()) {
                 // no denominator follows the slash, drop the fraction idea
-                numeratorSpecials.clear();
+                numeratorSpecials = Collections.emptyList();
                 maxDenominator = 1;
                 numeratorFmt = null;
                 denominatorFmt = null;
@@ -245,9 +335,9 @@ public class NumberFormatter extends ValueFormatter {
                         && onlyDigitPattern.matcher(digitsAfterSlash).matches();
                 maxDenominator = concreteDenominator
                         ? Integer.parseInt(digitsAfterSlash)
-                        : maxValue(denominatorSpecials);
-                numeratorFmt = singleNumberFormat(numeratorSpecials);
-                denominatorFmt = singleNumberFormat(denominatorSpecials);
+                        : maxValue(denominatorSpecials.size());
+                numeratorFmt = singleNumberFormat(numeratorSpecials.size());
+                denominatorFmt = singleNumberFormat(denominatorSpecials.size());
 
                 String wholePart = "#";
                 String fractionPart = "#/##";
@@ -272,11 +362,27 @@ public class NumberFormatter extends ValueFormatter {
             numeratorFmt = null;
             denominatorFmt = null;
         }
+        numeratorStart = numeratorSpecials.isEmpty() ? 0 : numeratorIndex;
+        numeratorEnd = numeratorStart + numeratorSpecials.size();
+        denominatorStart = denominatorSpecials.isEmpty() ? 0 : denominatorIndex;
+        denominatorEnd = denominatorStart + denominatorSpecials.size();
 
-        integerSpecials.addAll(specials.subList(0, integerEnd()));
+        if (integerEnd < 0) {
+            throw new IllegalArgumentException("No integer part in " + ValueFormatter.quote(format));
+        }
+        specialChars = new char[specials.size()];
+        specialPositions = new int[specials.size()];
+        for (int i = 0; i < specialChars.length; i++) {
+            specialChars[i] = specials.get(i).ch;
+            specialPositions[i] = specials.get(i).pos;
+        }
+        this.decimalPoint = specials.indexOf(decimalPoint);
+        this.slash = specials.indexOf(slash);
+        this.exponent = specials.indexOf(exponent);
+        this.numerator = specials.indexOf(numerator);
 
         if (exponent == null) {
-            int integerPartWidth = calculateIntegerPartWidth();
+            int integerPartWidth = calculateIntegerPartWidth(specials, afterInteger);
             int totalWidth = integerPartWidth + fractionPartWidth;
 
             // need to handle empty width specially as %00.0f fails during formatting
@@ -286,27 +392,28 @@ public class NumberFormatter extends ValueFormatter {
             } else {
                 printfFmt = "%0" + totalWidth + '.' + precision + "f";
             }
+            integerPrintfWidth = totalWidth > 0 && precision == 0 ? totalWidth : -1;
 
             decimalFmt = null;
         } else {
             StringBuffer fmtBuf = new StringBuffer();
             boolean first = true;
-            if (integerSpecials.size() == 1) {
+            if (integerEnd == 1) {
                 // If we don't do this, we get ".6e5" instead of "6e4"
                 fmtBuf.append("0");
                 first = false;
             } else {
-                for (Special s : integerSpecials) {
-                    if (isDigitFmt(s)) {
+                for (int i = 0; i < integerEnd; i++) {
+                    if (isDigitFmt(specialChars[i])) {
                         fmtBuf.append(first ? '#' : '0');
                         first = false;
                     }
                 }
             }
-            if (fractionalSpecials.size() > 0) {
+            if (fractionalEnd > fractionalStart) {
                 fmtBuf.append('.');
-                for (Special s : fractionalSpecials) {
-                    if (isDigitFmt(s)) {
+                for (int i = fractionalStart; i < fractionalEnd; i++) {
+                    if (isDigitFmt(specialChars[i])) {
                         if (!first) {
                             fmtBuf.append('0');
                         }
@@ -315,17 +422,105 @@ public class NumberFormatter extends ValueFormatter {
                 }
             }
             fmtBuf.append('E');
-            placeZeros(fmtBuf, exponentSpecials.subList(2, exponentSpecials.size()));
+            placeZeros(fmtBuf, exponentDigitStart, exponentDigitEnd);
             decimalFmt = new DecimalFormat(fmtBuf.toString(), getDecimalFormatSymbols());
             printfFmt = null;
+            integerPrintfWidth = -1;
         }
 
         desc = descBuf.toString();
+        localizedDesc = localiseFormat(desc);
+
+        // The length of a plain integer or decimal format only depends on the
+        // number of digits of the value, see measure()
+        if (exponent == null && slash == null && fractionFormat == null && integerEnd > 0) {
+            measureIntegerWidth = calculateIntegerPartWidth(specials, afterInteger) + fractionPartWidth
+                    - (precision > 0 ? precision + 1 : 0);
+            measureLiteralLength = FormatPart.expandLayoutMarks(desc).length();
+        } else {
+            measureIntegerWidth = -1;
+            measureLiteralLength = -1;
+        }
+        measurable = measureIntegerWidth >= 0 && localeProfile.getZeroDigit() == '0';
+        fractionalHashes = hasChar('#', fractionalStart, fractionalEnd);
+        plain = PLAIN_FORMAT.matcher(format).matches() && localeProfile.getZeroDigit() == '0';
+    }
+
+    /**
+     * Creates a number formatter for another locale from a parsed one.  Only
+     * what depends on the locale is set up again; the parsed format is
+     * shared.
+     *
+     * @param parsed The formatter to take the parsed format from.
+     * @param locale The locale to use.
+     */
+    protected NumberFormatter(NumberFormatter parsed, Locale locale) {
+        super(locale, parsed.format);
+        localeProfile = LocaleProfile.of(locale);
+
+        desc = parsed.desc;
+        localizedDesc = localiseFormat(desc);
+        printfFmt = parsed.printfFmt;
+        integerPrintfWidth = parsed.integerPrintfWidth;
+        scale = parsed.scale;
+        scaleExponent = parsed.scaleExponent;
+        percentScale = parsed.percentScale;
+        showGroupingSeparator = parsed.showGroupingSeparator;
+        specialChars = parsed.specialChars;
+        specialPositions = parsed.specialPositions;
+        decimalPoint = parsed.decimalPoint;
+        slash = parsed.slash;
+        exponent = parsed.exponent;
+        numerator = parsed.numerator;
+        integerEnd = parsed.integerEnd;
+        fractionalStart = parsed.fractionalStart;
+        fractionalEnd = parsed.fractionalEnd;
+        numeratorStart = parsed.numeratorStart;
+        numeratorEnd = parsed.numeratorEnd;
+        denominatorStart = parsed.denominatorStart;
+        denominatorEnd = parsed.denominatorEnd;
+        exponentStart = parsed.exponentStart;
+        exponentDigitStart = parsed.exponentDigitStart;
+        exponentDigitEnd = parsed.exponentDigitEnd;
+        maxDenominator = parsed.maxDenominator;
+        concreteDenominator = parsed.concreteDenominator;
+        numeratorFmt = parsed.numeratorFmt;
+        denominatorFmt = parsed.denominatorFmt;
+        improperFraction = parsed.improperFraction;
+        if (parsed.decimalFmt != null) {
+            decimalFmt = (DecimalFormat) parsed.decimalFmt.clone();
+            decimalFmt.setDecimalFormatSymbols(getDecimalFormatSymbols());
+        } else {
+            decimalFmt = null;
+        }
+        fractionFormat = parsed.fractionFormat;
+        scalesCount = parsed.scalesCount;
+        layoutMarks = parsed.layoutMarks;
+        measureIntegerWidth = parsed.measureIntegerWidth;
+        measureLiteralLength = parsed.measureLiteralLength;
+        measurable = measureIntegerWidth >= 0 && localeProfile.getZeroDigit() == '0';
+        fractionalHashes = parsed.fractionalHashes;
+        plain = PLAIN_FORMAT.matcher(format).matches() && localeProfile.getZeroDigit() == '0';
+    }
+
+    @Override
+    protected ValueFormatter withLocale(Locale locale) {
+        return locale.equals(this.locale) ? this : new NumberFormatter(this, locale);
     }
 
     @Override
     public int getNumberOfDecimalPlaces() {
-        return fractionalSpecials.size();
+        return fractionalEnd - fractionalStart;
+    }
+
+    @Override
+    public double getPercentScale() {
+        return percentScale;
+    }
+
+    @Override
+    public boolean isGrouping() {
+        return showGroupingSeparator;
     }
 
     @Override
@@ -338,19 +533,19 @@ public class NumberFormatter extends ValueFormatter {
             throw new IllegalArgumentException("Decimals count cannot be less than 0, actual: " + decimalsCount);
         }
 
-        if (integerSpecials.isEmpty() && fractionalSpecials.isEmpty()) {
-            return desc;
+        if (integerEnd == 0 && fractionalEnd == fractionalStart) {
+            return FormatPart.expandLayoutMarks(desc);
         }
 
-        int lastInteger = integerSpecials.get(integerSpecials.size() - 1).pos;
+        int lastInteger = specialPositions[lastSpecial(0, integerEnd)];
 
-        int decimalStart = decimalPoint == null ? lastInteger : decimalPoint.pos;
+        int decimalStart = decimalPoint < 0 ? lastInteger : specialPositions[decimalPoint];
 
-        int decimalEnd = fractionalSpecials.isEmpty()
+        int decimalEnd = fractionalEnd == fractionalStart
                 ? lastInteger
-                : fractionalSpecials.get(fractionalSpecials.size() - 1).pos;
+                : specialPositions[fractionalEnd - 1];
 
-        if (decimalPoint == null && decimalStart == 0) {
+        if (decimalPoint < 0 && decimalStart == 0) {
             decimalStart = 1;
         }
 
@@ -359,9 +554,9 @@ public class NumberFormatter extends ValueFormatter {
         }
 
         String partBeforeDecimal = desc.substring(0, decimalStart);
-        String partAfterDecimal = desc.substring(decimalEnd + 1);
+        String partAfterDecimal = FormatPart.expandLayoutMarks(desc.substring(decimalEnd + 1));
 
-        int firstDecimalPos = integerSpecials.get(0).pos;
+        int firstDecimalPos = specialPositions[0];
 
         boolean removeMinus = false;
         boolean addMinus = false;
@@ -377,7 +572,7 @@ public class NumberFormatter extends ValueFormatter {
 
         if (groupThousands) {
             StringBuilder integerPartBuilder = new StringBuilder();
-            integerSpecials.forEach(special -> integerPartBuilder.append(special.ch));
+            integerPartBuilder.append(specialChars, 0, integerEnd);
 
             while (integerPartBuilder.length() < 4) {
                 integerPartBuilder.insert(0, '#');
@@ -411,6 +606,7 @@ public class NumberFormatter extends ValueFormatter {
                 partBeforeDecimal = partBeforeDecimalStart + "-" + partBeforeDecimalEnd;
             }
         }
+        partBeforeDecimal = FormatPart.expandLayoutMarks(partBeforeDecimal);
 
         StringBuilder scalesCommasBuilder = new StringBuilder();
         Stream.generate(() -> ',').limit(this.scalesCount).forEach(scalesCommasBuilder::append);
@@ -422,7 +618,7 @@ public class NumberFormatter extends ValueFormatter {
         StringBuilder builder = new StringBuilder();
 
         builder.append(partBeforeDecimal);
-        builder.append(decimalPoint != null ? decimalPoint.ch : NumberPartHandler.DECIMAL_POINT);
+        builder.append(decimalPoint >= 0 ? specialChars[decimalPoint] : NumberPartHandler.DECIMAL_POINT);
 
         Stream.generate(() -> '0').limit(decimalsCount).forEach(builder::append);
         builder.append(scalesCommasBuilder);
@@ -437,40 +633,43 @@ public class NumberFormatter extends ValueFormatter {
     }
 
     protected DecimalFormatSymbols getDecimalFormatSymbols() {
-        return DecimalFormatSymbols.getInstance(locale);
+        return localeProfile.getDecimalFormatSymbols();
     }
 
-    protected static void placeZeros(StringBuffer sb, List<Special> specials) {
-        for (Special s : specials) {
-            if (isDigitFmt(s)) {
+    protected void placeZeros(StringBuffer sb, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isDigitFmt(specialChars[i])) {
                 sb.append('0');
             }
         }
     }
 
-    protected static NumberStringMod insertMod(Special special, CharSequence toAdd, int where) {
-        return new NumberStringMod(special, toAdd, where);
+    protected NumberStringMod insertMod(int special, CharSequence toAdd, int where) {
+        if (special < 0) {
+            // no digit was written to insert at, which has always been an error
+            throw new NullPointerException("No special to insert " + toAdd + " at");
+        }
+        return new NumberStringMod(special, specialPositions[special], toAdd, where);
     }
 
-    protected static NumberStringMod deleteMod(Special start, boolean startInclusive, Special end,
-                                               boolean endInclusive) {
-        return new NumberStringMod(start, startInclusive, end, endInclusive);
+    protected NumberStringMod deleteMod(int start, boolean startInclusive, int end, boolean endInclusive) {
+        return new NumberStringMod(start, specialPositions[start], startInclusive, end, endInclusive);
     }
 
-    protected static NumberStringMod replaceMod(Special start, boolean startInclusive, Special end,
-                                                boolean endInclusive, char withChar) {
-        return new NumberStringMod(start, startInclusive, end, endInclusive, withChar);
+    protected NumberStringMod replaceMod(int start, boolean startInclusive, int end, boolean endInclusive,
+                                         char withChar) {
+        return new NumberStringMod(start, specialPositions[start], startInclusive, end, endInclusive, withChar);
     }
 
-    protected static String singleNumberFormat(List<Special> numSpecials) {
-        return "%0" + numSpecials.size() + "d";
+    protected static String singleNumberFormat(int digits) {
+        return "%0" + digits + "d";
     }
 
-    protected static int maxValue(List<Special> s) {
-        return Math.toIntExact(Math.round(Math.pow(10, s.size()) - 1));
+    protected static int maxValue(int digits) {
+        return Math.toIntExact(Math.round(Math.pow(10, digits) - 1));
     }
 
-    protected List<Special> specialsFor(int pos, int takeFirst) {
+    protected static List<Special> specialsFor(List<Special> specials, int pos, int takeFirst) {
         if (pos >= specials.size()) {
             return Collections.emptyList();
         }
@@ -488,15 +687,15 @@ public class NumberFormatter extends ValueFormatter {
         return specials.subList(pos, end + 1);
     }
 
-    protected List<Special> specialsFor(int pos) {
-        return specialsFor(pos, 0);
+    protected static boolean isDigitFmt(Special s) {
+        return isDigitFmt(s.ch);
     }
 
-    protected static boolean isDigitFmt(Special s) {
-        return s.ch == '0' || s.ch == '?' || s.ch == '#';
+    protected static boolean isDigitFmt(char ch) {
+        return ch == '0' || ch == '?' || ch == '#';
     }
 
-    private int calculateIntegerPartWidth() {
+    private static int calculateIntegerPartWidth(List<Special> specials, Special afterInteger) {
         int digitCount = 0;
         for (Special s : specials) {
             //!! Handle fractions: The previous set of digits before that is the numerator,
@@ -579,24 +778,302 @@ public class NumberFormatter extends ValueFormatter {
         return integerCommas;
     }
 
-    protected int integerEnd() {
-        return (afterInteger == null) ? specials.size() : specials.indexOf(afterInteger);
-    }
-
-    protected int fractionalEnd() {
-        return (afterFractional == null) ? specials.size() : specials.indexOf(afterFractional);
+    private static int endOf(List<Special> specials, Special after) {
+        return (after == null) ? specials.size() : specials.indexOf(after);
     }
 
     /** {@inheritDoc} */
     public void formatValue(StringBuffer toAppendTo, Object valueObject) {
+        int start = toAppendTo.length();
+        formatMarked(toAppendTo, valueObject);
+        if (layoutMarks) {
+            FormatPart.expandLayoutMarks(toAppendTo, start);
+        }
+    }
+
+    @Override
+    protected boolean hasLayoutMarks() {
+        return layoutMarks;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For formats without exponent or fraction, the length follows from the
+     * number of integer and fraction digits of the rounded value: every '#'
+     * that would be stripped is taken away, and every grouping separator and
+     * extra leading digit is added.
+     */
+    @Override
+    public int measure(double value) {
+        double scaled = value * scale;
+        if (!measurable || Double.isNaN(scaled) || Double.isInfinite(scaled)
+                || Double.doubleToRawLongBits(scaled) == Double.doubleToRawLongBits(-0.0)) {
+            return super.measure(value);
+        }
+
+        boolean negative = scaled < 0;
+        double magnitude = Math.abs(scaled);
+        int precision = fractionalEnd - fractionalStart;
+        int integerDigits;
+        int fractionDigits = precision;
+        if (fractionalHashes || scaleExponent != 0) {
+            BigDecimal rounded = scaleExponent != 0 ? round(scaledDecimal(Math.abs(value)), precision)
+                    : round(magnitude, precision);
+            integerDigits = Math.max(1, rounded.precision() - rounded.scale());
+            if (fractionalHashes) {
+                fractionDigits = Math.max(0, rounded.stripTrailingZeros().scale());
+            }
+        } else {
+            integerDigits = roundedIntegerDigits(magnitude, precision);
+        }
+
+        int length = measureLiteralLength + (negative ? 1 : 0);
+        int count = integerEnd;
+        for (int digit = 0; digit < count; digit++) {
+            if (digit >= integerDigits && specialChars[count - 1 - digit] == '#') {
+                length--;
+            } else if (showGroupingSeparator && digit > 0 && digit % 3 == 0) {
+                length++;
+            }
+        }
+        int extraLeadingDigits = Math.max(measureIntegerWidth, integerDigits) - count;
+        for (int digit = count; digit < count + extraLeadingDigits; digit++) {
+            length += (showGroupingSeparator && digit % 3 == 0) ? 2 : 1;
+        }
+        for (int digit = fractionDigits; digit < precision; digit++) {
+            if (specialChars[fractionalStart + digit] == '#') {
+                length--;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * For formats without exponent or fraction, the text only depends on the
+     * sign of the scaled value and on its digits after rounding to the
+     * precision of the format, so the key is the rounded value as an integer,
+     * with bit 60 set for negative values.
+     */
+    @Override
+    public long renderKey(double value) {
+        double scaled = value * scale;
+        if (!measurable || Double.isNaN(scaled) || Double.isInfinite(scaled)
+                || Double.doubleToRawLongBits(scaled) == Double.doubleToRawLongBits(-0.0)) {
+            return POIFormat.NO_RENDER_KEY;
+        }
+        int precision = fractionalEnd - fractionalStart;
+        long rounded = scaleExponent != 0 ? unscaled(round(scaledDecimal(Math.abs(value)), precision))
+                : roundedUnscaled(Math.abs(scaled), precision);
+        if (rounded < 0 || rounded >= 1L << 60) {
+            return POIFormat.NO_RENDER_KEY;
+        }
+        return scaled < 0 ? rounded | 1L << 60 : rounded;
+    }
+
+    /**
+     * Returns the value rounded to the precision like <tt>printfFmt</tt> does,
+     * times <tt>10^precision</tt>, or -1 if that does not fit in a long.
+     */
+    private static long roundedUnscaled(double value, int precision) {
+        if (precision < POWERS_OF_TEN.length) {
+            double unscaled = value * POWERS_OF_TEN[precision];
+            // Only a value close to a tie may round differently from its decimal form
+            if (unscaled < 1e15 && Math.abs(unscaled - Math.floor(unscaled) - 0.5) > 4 * Math.ulp(unscaled)) {
+                return Math.round(unscaled);
+            }
+        }
+        return unscaled(round(value, precision));
+    }
+
+    /** Returns the unscaled value, or -1 if it does not fit in a long. */
+    private static long unscaled(BigDecimal rounded) {
+        BigInteger unscaled = rounded.unscaledValue();
+        return unscaled.bitLength() < 63 ? unscaled.longValue() : -1;
+    }
+
+    /**
+     * Returns the number of integer digits of the value after rounding it to
+     * the precision like <tt>printfFmt</tt> does, at least 1.
+     */
+    private static int roundedIntegerDigits(double value, int precision) {
+        if (value < 1e15 && precision < POWERS_OF_TEN.length) {
+            long integer = (long) value;
+            int digits = 1;
+            while (integer >= POWERS_OF_TEN[digits]) {
+                digits++;
+            }
+            // Rounding only adds a digit right below the next power of ten
+            double margin = 1.0 / POWERS_OF_TEN[precision] + 4 * Math.ulp(value);
+            if (POWERS_OF_TEN[digits] - value > margin) {
+                return digits;
+            }
+        }
+        BigDecimal rounded = round(value, precision);
+        return Math.max(1, rounded.precision() - rounded.scale());
+    }
+
+    /**
+     * Rounds like the <tt>%f</tt> conversion: half up, starting from the
+     * shortest decimal representation of the value.
+     */
+    private static BigDecimal round(double value, int precision) {
+        return round(BigDecimal.valueOf(value), precision);
+    }
+
+    private static BigDecimal round(BigDecimal value, int precision) {
+        return value.setScale(precision, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * Returns the magnitude of a value times {@link #scale}, exactly: the
+     * shortest decimal form of the value with the decimal point moved by
+     * {@link #scaleExponent}.
+     */
+    private BigDecimal scaledDecimal(double magnitude) {
+        return BigDecimal.valueOf(magnitude).scaleByPowerOfTen(scaleExponent);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the digits of the value are written from the
+     * value itself rather than from its double: integers, {@link BigInteger}s
+     * and {@link BigDecimal}s.
+     *
+     * @param value The value.
+     *
+     * @return <tt>true</tt> if the value has exact digits.
+     */
+    static boolean isExact(Object value) {
+        return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+                || value instanceof BigDecimal || value instanceof BigInteger;
+    }
+
+    /**
+     * Negates a value with exact digits, see {@link #isExact(Object)}.
+     *
+     * @param value The value.
+     *
+     * @return The negated value.
+     */
+    static Number negate(Number value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).negate();
+        } else if (value instanceof BigInteger) {
+            return ((BigInteger) value).negate();
+        }
+        long integer = value.longValue();
+        return integer == Long.MIN_VALUE ? BigInteger.valueOf(integer).negate() : Long.valueOf(-integer);
+    }
+
+    private static int signum(Number value) {
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).signum();
+        } else if (value instanceof BigInteger) {
+            return ((BigInteger) value).signum();
+        }
+        return Long.signum(value.longValue());
+    }
+
+    /**
+     * Writes the digits of the magnitude of a value with exact digits like
+     * <tt>printfFmt</tt> writes a double.  Integer formats write a long
+     * without any decimal arithmetic.
+     */
+    private void writeExactDigits(StringBuffer result, Number value) {
+        if (integerPrintfWidth >= 0 && scaleExponent == 0 && localeProfile.getZeroDigit() == '0'
+                && !(value instanceof BigDecimal) && !(value instanceof BigInteger)
+                && value.longValue() != Long.MIN_VALUE) {
+            String digits = Long.toString(Math.abs(value.longValue()));
+            for (int i = digits.length(); i < integerPrintfWidth; i++) {
+                result.append('0');
+            }
+            result.append(digits);
+            return;
+        }
+
+        BigDecimal decimal;
+        if (value instanceof BigDecimal) {
+            decimal = (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            decimal = new BigDecimal((BigInteger) value);
+        } else {
+            decimal = BigDecimal.valueOf(value.longValue());
+        }
+        try (Formatter f = new Formatter(result, locale)) {
+            f.format(locale, printfFmt, decimal.abs().scaleByPowerOfTen(scaleExponent));
+        }
+    }
+
+    /**
+     * Writes a finite, nonzero double in a {@link #plain} format, with the
+     * same digits and separators as <tt>printfFmt</tt> and the string mods.
+     *
+     * @return <tt>false</tt>, with nothing written, if the rounded digits do
+     *         not fit in a long.
+     */
+    private boolean writePlain(StringBuffer toAppendTo, double value) {
+        int precision = fractionalEnd - fractionalStart;
+        // a '%' moves the point, so the scaled value rounds at two more places
+        long unscaled = roundedUnscaled(Math.abs(value), precision + scaleExponent);
+        if (unscaled < 0) {
+            return false;
+        }
+
+        String digits = Long.toString(unscaled);
+        int integerDigits = Math.max(1, digits.length() - precision);
+        int leadingZeros = integerDigits + precision - digits.length();
+        if (value < 0) {
+            toAppendTo.append('-');
+        }
+        for (int i = 0; i < integerDigits; i++) {
+            if (showGroupingSeparator && i > 0 && (integerDigits - i) % 3 == 0) {
+                toAppendTo.append(localeProfile.getGroupingSeparatorString());
+            }
+            toAppendTo.append(i < leadingZeros ? '0' : digits.charAt(i - leadingZeros));
+        }
+        if (precision > 0) {
+            toAppendTo.append(localeProfile.getDecimalSeparator());
+            for (int i = integerDigits; i < integerDigits + precision; i++) {
+                toAppendTo.append(i < leadingZeros ? '0' : digits.charAt(i - leadingZeros));
+            }
+        }
+        if (scaleExponent != 0) {
+            toAppendTo.append('%');
+        }
+        return true;
+    }
+
+    @Override
+    protected void formatMarked(StringBuffer toAppendTo, Object valueObject) {
 
         if (this.fractionFormat != null) {
             toAppendTo.append(this.fractionFormat.format((Number) valueObject));
             return;
         }
 
+        // the most common formats skip printf and the string mods; zeros keep
+        // their sign on the general path
+        if (plain && !isExact(valueObject)) {
+            double plainValue = ((Number) valueObject).doubleValue();
+            if (plainValue != 0 && !Double.isNaN(plainValue) && !Double.isInfinite(plainValue)
+                    && writePlain(toAppendTo, plainValue)) {
+                return;
+            }
+        }
+
+        // integers and decimals keep all their digits in plain formats
+        Number exact = exponent < 0 && slash < 0 && numerator < 0 && isExact(valueObject)
+                ? (Number) valueObject : null;
         double value = ((Number) valueObject).doubleValue();
-        value *= scale;
+        // plain digits are scaled exactly when they are written; zeros, which
+        // need no scaling, keep their sign
+        boolean exactScale = scaleExponent != 0 && slash < 0 && numerator < 0 && value != 0
+                && !Double.isNaN(value) && !Double.isInfinite(value);
+        if (!exactScale) {
+            value *= scale;
+        }
 
         // For negative numbers:
         // - If the cell format has a negative number format, this method
@@ -605,14 +1082,14 @@ public class NumberFormatter extends ValueFormatter {
         // - If the cell format does not have a negative number format,
         // this method is called with a negative value and the number is
         // formatted with a minus sign at the start.
-        boolean negative = value < 0;
+        boolean negative = exact != null ? signum(exact) < 0 : value < 0;
         if (negative) {
             value = -value;
         }
 
         // Split out the fractional part if we need to print a fraction
         double fractional = 0;
-        if (slash != null) {
+        if (slash >= 0) {
             if (improperFraction) {
                 fractional = value;
                 value = 0;
@@ -624,28 +1101,31 @@ public class NumberFormatter extends ValueFormatter {
         }
 
         Set<NumberStringMod> mods = new TreeSet<>();
-        StringBuffer output = new StringBuffer(localiseFormat(desc));
+        StringBuffer output = new StringBuffer(localizedDesc);
 
-        if (exponent != null) {
+        if (exponent >= 0) {
             writeScientific(value, output, mods);
         } else if (improperFraction) {
             writeFraction(value, null, fractional, output, mods);
         } else {
             StringBuffer result = new StringBuffer();
-            try (Formatter f = new Formatter(result, locale)) {
-                f.format(locale, printfFmt, value);
+            if (exact != null) {
+                writeExactDigits(result, exact);
+            } else {
+                try (Formatter f = new Formatter(result, locale)) {
+                    f.format(locale, printfFmt, exactScale ? scaledDecimal(value) : value);
+                }
             }
 
-            if (numerator == null) {
+            if (numerator < 0) {
                 writeFractional(result, output);
-                writeInteger(result, output, integerSpecials, mods, showGroupingSeparator);
+                writeInteger(result, output, 0, integerEnd, mods, showGroupingSeparator);
             } else {
                 writeFraction(value, result, fractional, output, mods);
             }
         }
 
-        DecimalFormatSymbols dfs = getDecimalFormatSymbols();
-        String groupingSeparator = Character.toString(dfs.getGroupingSeparator());
+        String groupingSeparator = localeProfile.getGroupingSeparatorString();
 
         // Now strip out any remaining '#'s and add any pending text ...
         Iterator<NumberStringMod> changes = mods.iterator();
@@ -653,20 +1133,21 @@ public class NumberFormatter extends ValueFormatter {
         // records chars already deleted
         BitSet deletedChars = new BitSet(); // SparseBitSet has removed to get rid of extra dependencies
         int adjust = 0;
-        for (Special s : specials) {
-            int adjustedPos = s.pos + adjust;
-            if (!deletedChars.get(s.pos) && output.charAt(adjustedPos) == '#') {
+        for (int s = 0; s < specialChars.length; s++) {
+            int sPos = specialPositions[s];
+            int adjustedPos = sPos + adjust;
+            if (!deletedChars.get(sPos) && output.charAt(adjustedPos) == '#') {
                 output.deleteCharAt(adjustedPos);
                 adjust--;
-                deletedChars.set(s.pos);
+                deletedChars.set(sPos);
             }
             while (nextChange != null && s == nextChange.getSpecial()) {
                 int lenBefore = output.length();
-                int modPos = s.pos + adjust;
+                int modPos = sPos + adjust;
                 switch (nextChange.getOp()) {
                     case NumberStringMod.AFTER:
                         // ignore adding a comma after a deleted char (which was a '#')
-                        if (nextChange.getToAdd().equals(groupingSeparator) && deletedChars.get(s.pos)) {
+                        if (nextChange.getToAdd().equals(groupingSeparator) && deletedChars.get(sPos)) {
                             break;
                         }
                         output.insert(modPos + 1, nextChange.getToAdd());
@@ -677,7 +1158,7 @@ public class NumberFormatter extends ValueFormatter {
 
                     case NumberStringMod.REPLACE:
                         // delete starting pos in original coordinates
-                        int delPos = s.pos;
+                        int delPos = sPos;
                         if (!nextChange.isStartInclusive()) {
                             delPos++;
                             modPos++;
@@ -690,7 +1171,7 @@ public class NumberFormatter extends ValueFormatter {
                         }
 
                         // delete end point in original
-                        int delEndPos = nextChange.getEnd().pos;
+                        int delEndPos = specialPositions[nextChange.getEnd()];
                         if (nextChange.isEndInclusive()) {
                             delEndPos++;
                         }
@@ -734,7 +1215,7 @@ public class NumberFormatter extends ValueFormatter {
         StringBuffer result = new StringBuffer();
         FieldPosition fractionPos = new FieldPosition(NumberFormat.FRACTION_FIELD);
         decimalFmt.format(value, result, fractionPos);
-        writeInteger(result, output, integerSpecials, mods, showGroupingSeparator);
+        writeInteger(result, output, 0, integerEnd, mods, showGroupingSeparator);
         writeFractional(result, output);
 
         /*
@@ -786,9 +1267,8 @@ public class NumberFormatter extends ValueFormatter {
         }
 
         // Now the result lines up like it is supposed to with the specials' indexes
-        ListIterator<Special> it = exponentSpecials.listIterator(1);
-        Special expSign = it.next();
-        char expSignFmt = expSign.ch;
+        int expSign = exponentStart + 1;
+        char expSignFmt = specialChars[expSign];
 
         // (4) In the output, remove the sign if it should not be shown or set it to
         // the correct value.
@@ -799,10 +1279,9 @@ public class NumberFormatter extends ValueFormatter {
         }
 
         StringBuffer exponentNum = new StringBuffer(result.substring(signPos + 1));
-        writeInteger(exponentNum, output, exponentDigitSpecials, mods, false);
+        writeInteger(exponentNum, output, exponentDigitStart, exponentDigitEnd, mods, false);
     }
 
-    @SuppressWarnings("unchecked")
     protected void writeFraction(double value, StringBuffer result,
                                double fractional, StringBuffer output, Set<NumberStringMod> mods) {
 
@@ -811,12 +1290,13 @@ public class NumberFormatter extends ValueFormatter {
         if (!improperFraction) {
             // If fractional part is zero, and numerator doesn't have '0', write out
             // only the integer part and strip the rest.
-            if (fractional == 0 && !hasChar('0', numeratorSpecials)) {
-                writeInteger(result, output, integerSpecials, mods, false);
+            if (fractional == 0 && !hasChar('0', numeratorStart, numeratorEnd)) {
+                writeInteger(result, output, 0, integerEnd, mods, false);
 
-                Special start = lastSpecial(integerSpecials);
-                Special end = lastSpecial(denominatorSpecials);
-                if (hasChar('?', integerSpecials, numeratorSpecials, denominatorSpecials)) {
+                int start = lastSpecial(0, integerEnd);
+                int end = lastSpecial(denominatorStart, denominatorEnd);
+                if (hasChar('?', 0, integerEnd) || hasChar('?', numeratorStart, numeratorEnd)
+                        || hasChar('?', denominatorStart, denominatorEnd)) {
                     //if any format has '?', then replace the fraction with spaces
                     mods.add(replaceMod(start, false, end, true, ' '));
                 } else {
@@ -828,24 +1308,24 @@ public class NumberFormatter extends ValueFormatter {
                 return;
             } else {
                 // New we check to see if we should remove the integer part
-                boolean numNoZero = !hasChar('0', numeratorSpecials);
-                boolean intNoZero = !hasChar('0', integerSpecials);
-                boolean intOnlyHash = integerSpecials.isEmpty()
-                        || (integerSpecials.size() == 1 && hasChar('#', integerSpecials));
+                boolean numNoZero = !hasChar('0', numeratorStart, numeratorEnd);
+                boolean intNoZero = !hasChar('0', 0, integerEnd);
+                boolean intOnlyHash = integerEnd == 0
+                        || (integerEnd == 1 && hasChar('#', 0, integerEnd));
 
                 boolean removeBecauseZero     = fractional == 0 && (intOnlyHash || numNoZero);
                 boolean removeBecauseFraction = fractional != 0 && intNoZero;
 
                 if (value == 0 && (removeBecauseZero || removeBecauseFraction)) {
-                    Special start = lastSpecial(integerSpecials);
-                    boolean hasPlaceHolder = hasChar('?', integerSpecials, numeratorSpecials);
+                    int start = lastSpecial(0, integerEnd);
+                    boolean hasPlaceHolder = hasChar('?', 0, integerEnd) || hasChar('?', numeratorStart, numeratorEnd);
                     NumberStringMod sm = hasPlaceHolder
                             ? replaceMod(start, true, numerator, false, ' ')
                             : deleteMod(start, true, numerator, false);
                     mods.add(sm);
                 } else {
                     // Not removing the integer part -- print it out
-                    writeInteger(result, output, integerSpecials, mods, false);
+                    writeInteger(result, output, 0, integerEnd, mods, false);
                 }
             }
         }
@@ -872,27 +1352,15 @@ public class NumberFormatter extends ValueFormatter {
             if (improperFraction) {
                 n += Math.round(value * d);
             }
-            writeSingleInteger(numeratorFmt, n, output, numeratorSpecials, mods);
-            writeSingleInteger(denominatorFmt, d, output, denominatorSpecials, mods);
+            writeSingleInteger(numeratorFmt, n, output, numeratorStart, numeratorEnd, mods);
+            writeSingleInteger(denominatorFmt, d, output, denominatorStart, denominatorEnd, mods);
         } catch (RuntimeException e) {
-            LOG.error(e.getMessage(), e);
+            FormatDiagnostics.report(FormatDiagnostics.Kind.FRACTION_FAILURE, format, e.toString());
         }
     }
 
     protected String localiseFormat(String format) {
-        DecimalFormatSymbols dfs = getDecimalFormatSymbols();
-        if(format.contains(",") && dfs.getGroupingSeparator() != ',') {
-            if(format.contains(".") && dfs.getDecimalSeparator() != '.') {
-                format = replaceLast(format, "\\.", "[DECIMAL_SEPARATOR]");
-                format = format.replace(',', dfs.getGroupingSeparator())
-                        .replace("[DECIMAL_SEPARATOR]", Character.toString(dfs.getDecimalSeparator()));
-            } else {
-                format = format.replace(',', dfs.getGroupingSeparator());
-            }
-        } else if(format.contains(".") && dfs.getDecimalSeparator() != '.') {
-            format = format.replace('.', dfs.getDecimalSeparator());
-        }
-        return format;
+        return localeProfile.localizeNumberFormat(format);
     }
 
 
@@ -900,38 +1368,43 @@ public class NumberFormatter extends ValueFormatter {
         return text.replaceFirst("(?s)(.*)" + regex, "$1" + replacement);
     }
 
-    protected static boolean hasChar(char ch, List<Special>... numSpecials) {
-        for (List<Special> specials : numSpecials) {
-            for (Special s : specials) {
-                if (s.ch == ch) {
-                    return true;
-                }
+    /**
+     * Returns <tt>true</tt> if one of the specials from the index to the end
+     * index (exclusive) is the character.
+     */
+    protected boolean hasChar(char ch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (specialChars[i] == ch) {
+                return true;
             }
         }
         return false;
     }
 
-    protected void writeSingleInteger(String fmt, int num, StringBuffer output, List<Special> numSpecials,
+    protected void writeSingleInteger(String fmt, int num, StringBuffer output, int from, int to,
                                       Set<NumberStringMod> mods) {
 
         StringBuffer sb = new StringBuffer();
         try (Formatter formatter = new Formatter(sb, locale)) {
             formatter.format(locale, fmt, num);
         }
-        writeInteger(sb, output, numSpecials, mods, false);
+        writeInteger(sb, output, from, to, mods, false);
     }
 
+    /**
+     * Writes the digits of the integer in the result to the specials from the
+     * index to the end index (exclusive).
+     */
     protected void writeInteger(StringBuffer result, StringBuffer output,
-                              List<Special> numSpecials, Set<NumberStringMod> mods,
+                              int from, int to, Set<NumberStringMod> mods,
                               boolean showGroupingSeparator) {
 
-        DecimalFormatSymbols dfs = getDecimalFormatSymbols();
-        String decimalSeparator = Character.toString(dfs.getDecimalSeparator());
-        String groupingSeparator = Character.toString(dfs.getGroupingSeparator());
+        String decimalSeparator = localeProfile.getDecimalSeparatorString();
+        String groupingSeparator = localeProfile.getGroupingSeparatorString();
 
         int pos = result.indexOf(decimalSeparator) - 1;
         if (pos < 0) {
-            if (exponent != null && numSpecials == integerSpecials) {
+            if (exponent >= 0 && from == 0 && to == integerEnd) {
                 pos = result.indexOf("E") - 1;
             } else {
                 pos = result.length() - 1;
@@ -941,16 +1414,15 @@ public class NumberFormatter extends ValueFormatter {
         int strip;
         for (strip = 0; strip < pos; strip++) {
             char resultCh = result.charAt(strip);
-            if (resultCh != '0' && resultCh != dfs.getGroupingSeparator()) {
+            if (resultCh != '0' && resultCh != localeProfile.getGroupingSeparator()) {
                 break;
             }
         }
 
-        ListIterator<Special> it = numSpecials.listIterator(numSpecials.size());
         boolean followWithGroupingSeparator = false;
-        Special lastOutputIntegerDigit = null;
+        int lastOutputIntegerDigit = -1;
         int digit = 0;
-        while (it.hasPrevious()) {
+        for (int s = to - 1; s >= from; s--) {
             char resultCh;
             if (pos >= 0) {
                 resultCh = result.charAt(pos);
@@ -958,12 +1430,12 @@ public class NumberFormatter extends ValueFormatter {
                 // If result is shorter than field, pretend there are leading zeros
                 resultCh = '0';
             }
-            Special s = it.previous();
+            char ch = specialChars[s];
             followWithGroupingSeparator = showGroupingSeparator && digit > 0 && digit % 3 == 0;
             boolean zeroStrip = false;
-            if (resultCh != '0' || s.ch == '0' || s.ch == '?' || pos >= strip) {
-                zeroStrip = s.ch == '?' && pos < strip;
-                output.setCharAt(s.pos, (zeroStrip ? ' ' : resultCh));
+            if (resultCh != '0' || ch == '0' || ch == '?' || pos >= strip) {
+                zeroStrip = ch == '?' && pos < strip;
+                output.setCharAt(specialPositions[s], (zeroStrip ? ' ' : resultCh));
                 lastOutputIntegerDigit = s;
             }
             if (followWithGroupingSeparator) {
@@ -994,10 +1466,10 @@ public class NumberFormatter extends ValueFormatter {
     protected void writeFractional(StringBuffer result, StringBuffer output) {
         int digit;
         int strip;
-        if (fractionalSpecials.size() > 0) {
-            String decimalSeparator = Character.toString(getDecimalFormatSymbols().getDecimalSeparator());
+        if (fractionalEnd > fractionalStart) {
+            String decimalSeparator = localeProfile.getDecimalSeparatorString();
             digit = result.indexOf(decimalSeparator) + 1;
-            if (exponent != null) {
+            if (exponent >= 0) {
                 strip = result.indexOf("e") - 1;
             } else {
                 strip = result.length() - 1;
@@ -1007,14 +1479,15 @@ public class NumberFormatter extends ValueFormatter {
                 strip--;
             }
 
-            for (Special s : fractionalSpecials) {
+            for (int s = fractionalStart; s < fractionalEnd; s++) {
                 char resultCh = result.charAt(digit);
-                if (resultCh != '0' || s.ch == '0' || digit < strip) {
-                    output.setCharAt(s.pos, resultCh);
-                } else if (s.ch == '?') {
+                char ch = specialChars[s];
+                if (resultCh != '0' || ch == '0' || digit < strip) {
+                    output.setCharAt(specialPositions[s], resultCh);
+                } else if (ch == '?') {
                     // This is when we're in trailing zeros, and the format is '?'.
                     // We still strip out remaining '#'s later
-                    output.setCharAt(s.pos, ' ');
+                    output.setCharAt(specialPositions[s], ' ');
                 }
                 digit++;
             }
@@ -1028,10 +1501,17 @@ public class NumberFormatter extends ValueFormatter {
      * for floating-point values.
      */
     public void simpleValue(StringBuffer toAppendTo, Object value) {
-        simpleNumber.formatValue(toAppendTo, value);
+        localeProfile.getSimpleNumberFormatter().formatValue(toAppendTo, value);
     }
 
-    protected static Special lastSpecial(List<Special> s)  {
-        return s.get(s.size() - 1);
+    /**
+     * Returns the index of the last special from the index to the end index
+     * (exclusive).
+     */
+    protected static int lastSpecial(int from, int to)  {
+        if (to <= from) {
+            throw new IndexOutOfBoundsException("Index: -1, Size: 0");
+        }
+        return to - 1;
     }
 }
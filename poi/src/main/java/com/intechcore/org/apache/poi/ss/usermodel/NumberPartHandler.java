@@ -34,6 +34,7 @@ public class NumberPartHandler implements PartHandler {
 
     protected char insertSignForExponent;
     protected double scale = 1;
+    protected int percentCount;
     protected NumberFormatter.Special decimalPoint;
     protected NumberFormatter.Special slash;
     protected NumberFormatter.Special exponent;
@@ -134,6 +135,7 @@ public class NumberPartHandler implements PartHandler {
             case '%':
                 // don't need to remember because we don't need to do anything with these
                 scale *= 100;
+                percentCount++;
                 startDigitsAfterSlash = false;
                 digitsAfterSlashAcc.setLength(0);
                 break;
@@ -154,6 +156,13 @@ public class NumberPartHandler implements PartHandler {
         return scale;
     }
 
+    /**
+     * @return The number of '%' in the format, each of which scales by 100.
+     */
+    public int getPercentCount() {
+        return percentCount;
+    }
+
     public NumberFormatter.Special getDecimalPoint() {
         return decimalPoint;
     }
@@ -37,26 +37,31 @@ public class NumberStringMod implements Comparable<NumberStringMod> {
     public static final int AFTER = 2;
     public static final int REPLACE = 3;
 
-    protected final NumberFormatter.Special special;
+    /** The index of the special in the formatter, see {@link NumberFormatter}. */
+    protected final int special;
+    /** The position of the special in the format. */
+    protected final int pos;
     protected final int op;
     protected CharSequence toAdd;
-    protected NumberFormatter.Special end;
+    protected int end;
     protected boolean startInclusive;
     protected boolean endInclusive;
 
-    public NumberStringMod(NumberFormatter.Special special, CharSequence toAdd, int op) {
+    public NumberStringMod(int special, int pos, CharSequence toAdd, int op) {
         this.special = special;
+        this.pos = pos;
         this.toAdd = toAdd;
         this.op = op;
     }
 
-    public NumberStringMod(NumberFormatter.Special start, boolean startInclusive, NumberFormatter.Special end, boolean endInclusive, char toAdd) {
-        this(start, startInclusive, end, endInclusive);
+    public NumberStringMod(int start, int startPos, boolean startInclusive, int end, boolean endInclusive, char toAdd) {
+        this(start, startPos, startInclusive, end, endInclusive);
         this.toAdd = toAdd + "";
     }
 
-    public NumberStringMod(NumberFormatter.Special start, boolean startInclusive, NumberFormatter.Special end, boolean endInclusive) {
+    public NumberStringMod(int start, int startPos, boolean startInclusive, int end, boolean endInclusive) {
         special = start;
+        pos = startPos;
         this.startInclusive = startInclusive;
         this.end = end;
         this.endInclusive = endInclusive;
@@ -66,7 +71,7 @@ public class NumberStringMod implements Comparable<NumberStringMod> {
 
     @Override
     public int compareTo(NumberStringMod that) {
-        int diff = special.pos - that.special.pos;
+        int diff = pos - that.pos;
         return (diff != 0) ? diff : (op - that.op);
     }
 
@@ -77,10 +82,10 @@ public class NumberStringMod implements Comparable<NumberStringMod> {
 
     @Override
     public int hashCode() {
-        return special.hashCode() + op;
+        return special + op;
     }
 
-    public NumberFormatter.Special getSpecial() {
+    public int getSpecial() {
         return special;
     }
 
@@ -92,7 +97,7 @@ public class NumberStringMod implements Comparable<NumberStringMod> {
         return toAdd;
     }
 
-    public NumberFormatter.Special getEnd() {
+    public int getEnd() {
         return end;
     }
 
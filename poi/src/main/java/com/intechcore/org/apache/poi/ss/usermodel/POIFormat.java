@@ -23,25 +23,32 @@ package com.intechcore.org.apache.poi.ss.usermodel;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.intechcore.poi.bridge.BridgeContainer;
+import com.intechcore.poi.bridge.IDateTimeUtilsBridge;
 import com.intechcore.poi.bridge.IValueFormatDetectorBridge;
 import com.intechcore.poi.bridge.PoiResult;
+import com.intechcore.poi.bridge.SerialDates;
 import com.intechcore.org.apache.poi.util.FormatHelper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Optional;
-import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 /**
  * Format a value according to the standard Excel behavior.  This "standard" is
@@ -85,21 +92,57 @@ import java.util.regex.Pattern;
 public class POIFormat implements Serializable {
 
     private final IValueFormatDetectorBridge formatDetector;
+    private final transient FormattingContext context;
 
     protected final Locale locale;
-    protected final FormatPart posNumFmt;
-    protected final FormatPart zeroNumFmt;
-    protected final FormatPart negNumFmt;
-    protected final FormatPart textFmt;
     protected final int formatPartCount;
 
-    private static final Logger LOG = LoggerFactory.getLogger(POIFormat.class);
+    private static final int POS = 0;
+    private static final int NEG = 1;
+    private static final int ZERO = 2;
+    private static final int TEXT = 3;
+    /** The value is shown with the "General" format. */
+    private static final int GENERAL_SECTION = -1;
+    /** The value is shown as "###...###". */
+    private static final int INVALID_VALUE_SECTION = -2;
+    /** Stands for a section that is missing or failed to compile. */
+    private static final Object NO_PART = new Object();
 
-    protected static final Pattern PARTS_DELIMITER = Pattern.compile(FormatPart.FORMAT_PAT.pattern() + "(;|$)",
-            Pattern.CASE_INSENSITIVE);
+    /** The text of the sections, see {@link #splitSections(String)}. */
+    private final String[] sections;
+    /** Whether each section has a condition, known without compiling it. */
+    private final boolean[] conditions;
+    /**
+     * The positive, negative, zero and text parts, compiled on first use, or
+     * {@link #NO_PART}.
+     */
+    private final AtomicReferenceArray<Object> parts = new AtomicReferenceArray<>(4);
+
+    private transient volatile FormatMemo memo;
+    private transient volatile FormatMetadata metadata;
+    private final boolean zeroFolded;
+    private transient volatile PoiResult zeroResult;
+    /** See {@link #getCanonicalCode()}; made on first use. */
+    private transient volatile String canonicalCode;
 
     private final static String QUOTE = "\"";
 
+    /** A condition at the start of a section, as {@link FormatPart#FORMAT_PAT} reads it. */
+    private static final Pattern CONDITION_PREFIX = Pattern.compile(
+            "(?:" + FormatPart.COLOR_PAT.pattern() + ")?\\[(?:" + FormatPart.CONDITION_PAT.pattern() + ")\\]",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Returned by {@link #renderKey(double)} if the value has no key. */
+    public static final long NO_RENDER_KEY = Long.MIN_VALUE;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The number of values {@link #measureColumn} measures per parallel task. */
+    private static final int MEASURE_CHUNK_SIZE = 4096;
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
     public POIFormat getFormatter() {
         return this;
     }
@@ -114,19 +157,52 @@ public class POIFormat implements Serializable {
 
     public static class GeneralPOIFormat extends POIFormat {
 
+        private final GeneralFormatter generalFormatter;
+
         @JsonCreator
         public GeneralPOIFormat(@JsonProperty("locale") Locale locale) {
-            super(locale, FormatHelper.GENERAL_CODE);
+            this(FormattingContext.getDefault(), locale);
+        }
+
+        private GeneralPOIFormat(FormattingContext context, Locale locale) {
+            super(context, locale, FormatHelper.GENERAL_CODE,
+                    context.getDetector(locale, FormatHelper.GENERAL_CODE));
+            this.generalFormatter = new GeneralFormatter(locale);
+        }
+
+        @Override
+        protected POIFormat rebind(Locale locale) {
+            return new GeneralPOIFormat(getContext(), locale);
         }
 
         @Override
-        public PoiResult apply(Object value) {
-            String text = (new GeneralFormatter(this.locale)).format(value);
+        protected PoiResult render(Object value) {
+            String text = this.generalFormatter.format(value);
             return new PoiResult(text, null);
         }
-    }
 
-    private static final Map<Locale, Map<String, POIFormat>> formatCache = new WeakHashMap<>();
+        @Override
+        public int formatTo(ByteBuffer out, Object value, ByteEncoding encoding) {
+            return this.generalFormatter.formatTo(out, value, encoding);
+        }
+
+        @Override
+        public void formatTo(FormatSink sink, Object value) {
+            this.generalFormatter.formatTo(sink, value);
+        }
+
+        @Override
+        public int measure(double value) {
+            return this.generalFormatter.measure(value);
+        }
+
+        @Override
+        public long displayHash(double value) {
+            StringBuffer sb = ValueFormatter.scratchBuffer();
+            this.generalFormatter.formatValue(sb, value);
+            return displayHash(sb, null);
+        }
+    }
 
     /**
      * Returns a {@link POIFormat} that applies the given format.  Two calls
@@ -141,8 +217,9 @@ public class POIFormat implements Serializable {
     }
 
     /**
-     * Returns a {@link POIFormat} that applies the given format.  Two calls
-     * with the same format may or may not return the same object.
+     * Returns a {@link POIFormat} of the {@link FormattingContext#getDefault()
+     * default context} that applies the given format.  Two calls with the
+     * same format may or may not return the same object.
      *
      * @param locale The locale.
      * @param format The format.
@@ -150,21 +227,89 @@ public class POIFormat implements Serializable {
      * @return A {@link POIFormat} that applies the given format.
      */
     @JsonCreator
-    public static synchronized POIFormat getInstance(@JsonProperty("locale") Locale locale,
-                                                     @JsonProperty("formatCode") String format) {
-        Map<String, POIFormat> formatMap = formatCache.computeIfAbsent(locale, k -> new WeakHashMap<>());
-        POIFormat result = formatMap.get(format);
-        if (result == null) {
-            IValueFormatDetectorBridge formatDetector = BridgeContainer.getDetectorStorage()
-                    .getDetectorBridge(locale, format);
-            if (formatDetector.isGeneral()) {
-                result = new GeneralPOIFormat(locale);
-            } else {
-                result = new POIFormat(locale, format);
-            }
-            formatMap.put(format, result);
+    public static POIFormat getInstance(@JsonProperty("locale") Locale locale,
+                                        @JsonProperty("formatCode") String format) {
+        return FormattingContext.getDefault().getFormat(locale, format);
+    }
+
+    /**
+     * Returns a {@link POIFormat} of the {@link FormattingContext#getDefault()
+     * default context} for a built-in format, by the numFmtId of a workbook,
+     * see {@link FormattingContext#getBuiltinFormat(Locale, int)}.
+     *
+     * @param locale   The locale.
+     * @param numFmtId The id of the built-in format.
+     *
+     * @return The format, or <tt>null</tt> if the id has no built-in code.
+     */
+    public static POIFormat getInstance(Locale locale, int numFmtId) {
+        return FormattingContext.getDefault().getBuiltinFormat(locale, numFmtId);
+    }
+
+    static POIFormat create(FormattingContext context, Locale locale, String format) {
+        IValueFormatDetectorBridge formatDetector = context.getDetector(locale, format);
+        if (formatDetector.isGeneral()) {
+            return new GeneralPOIFormat(context, locale);
+        } else {
+            return new POIFormat(context, locale, format, formatDetector);
         }
-        return result;
+    }
+
+    /**
+     * Compiles the format codes of a workbook up front, in the
+     * {@link FormattingContext#getDefault() default context}; see
+     * {@link FormattingContext#compileAll(Locale, Collection)}.
+     *
+     * @param locale      The locale.
+     * @param formatCodes The format codes, e.g. of the numFmt table of a
+     *                    workbook.
+     *
+     * @return The compile time of each code and the failures.
+     */
+    public static FormatCompileReport compileAll(Locale locale, Collection<String> formatCodes) {
+        return FormattingContext.getDefault().compileAll(locale, formatCodes);
+    }
+
+    /**
+     * Returns this format for another locale.  The sections are not parsed
+     * again: the new format shares the locale-neutral plan of this one, the
+     * sections, conditions and parsed parts, and only binds the parts to the
+     * separators, names and symbols of the locale.  This takes time in the
+     * number of sections.  The result is cached like the formats of
+     * {@link #getInstance(Locale, String)}, in the context of this format.
+     *
+     * @param locale The locale.
+     *
+     * @return The same format for the locale.
+     */
+    public POIFormat withLocale(Locale locale) {
+        if (this.locale.equals(locale)) {
+            return this;
+        }
+        return context().rebind(this, locale, getFormatCode());
+    }
+
+    /**
+     * Creates this format for another locale, without parsing it again.
+     *
+     * @param locale The locale.
+     *
+     * @return The format for the locale.
+     */
+    protected POIFormat rebind(Locale locale) {
+        return new POIFormat(this, locale);
+    }
+
+    /**
+     * @return The context the format was made in.
+     */
+    public FormattingContext getContext() {
+        return context();
+    }
+
+    private FormattingContext context() {
+        // null after Java deserialization
+        return context != null ? context : FormattingContext.getDefault();
     }
 
     @JsonProperty("locale")
@@ -172,6 +317,17 @@ public class POIFormat implements Serializable {
         return this.locale;
     }
 
+    /**
+     * Returns the id of the locale and the code of this format in the
+     * {@link FormatRegistry} of its context, registering it there if it is
+     * not yet; see {@link FormatRegistry#register(Locale, String)}.
+     *
+     * @return The id, never {@link FormatRegistry#NO_ID}.
+     */
+    public int getId() {
+        return context().getRegistry().register(this);
+    }
+
     public IValueFormatDetectorBridge withDecimalPlaces(int decimalsCount) {
         return this.updateFormat(
                 a -> new NestedFormatPartBuilder(a).decimals(decimalsCount).build(),
@@ -194,34 +350,38 @@ public class POIFormat implements Serializable {
         return this.formatDetector;
     }
 
-    public boolean isNumeric() {
-        boolean result = this.posNumFmt.type == FormatType.NUMBER;
-        if (this.negNumFmt != null) {
-            result = result && this.negNumFmt.type == FormatType.NUMBER;
-        }
-
-        if (this.zeroNumFmt != null) {
-            result = result && this.zeroNumFmt.type == FormatType.NUMBER;
+    /**
+     * Returns what the format is, as far as it can be told without a value.
+     * It is computed once, on first use.
+     *
+     * @return The metadata of the format.
+     */
+    public FormatMetadata getMetadata() {
+        FormatMetadata result = metadata;
+        if (result == null) {
+            result = new FormatMetadata(posNumFmt(), negNumFmt(), zeroNumFmt(), textFmt());
+            metadata = result;
         }
-
         return result;
     }
 
-    public String getCurrencySign() {
-       if (!this.isNumeric()) {
-           return null;
-       }
+    public boolean isNumeric() {
+        return getMetadata().isNumeric();
+    }
 
-       return this.posNumFmt.getCurrencySign();
+    public String getCurrencySign() {
+        return getMetadata().getCurrencySign();
     }
 
-    private IValueFormatDetectorBridge updateFormat(Function<FormatPart, String> function, boolean negOnly) {
-        Optional<String> posFormatPart = Optional.ofNullable(this.posNumFmt)
+    private IValueFormatDetectorBridge updateFormat(Function<FormatPart, String> update, boolean negOnly) {
+        // hidden sections stay hidden
+        Function<FormatPart, String> function = part -> part.isHidden() ? part.toString() : update.apply(part);
+        Optional<String> posFormatPart = Optional.ofNullable(posNumFmt())
                 .map(part -> negOnly ? part.toString() : function.apply(part));
-        Optional<String> negFormatPart = Optional.ofNullable(this.negNumFmt).map(part -> ';' + function.apply(part));
-        Optional<String> zeroFormatPart = Optional.ofNullable(this.zeroNumFmt)
+        Optional<String> negFormatPart = Optional.ofNullable(negNumFmt()).map(part -> ';' + function.apply(part));
+        Optional<String> zeroFormatPart = Optional.ofNullable(zeroNumFmt())
                 .map(part -> ';' + (negOnly ? part.toString() : function.apply(part)));
-        Optional<String> textFormatPart = Optional.ofNullable(this.textFmt)
+        Optional<String> textFormatPart = Optional.ofNullable(textFmt())
                 .map(part -> negOnly ? part.toString() : function.apply(part));
 
         if (textFormatPart.isPresent() && textFormatPart.get().equals(FormatHelper.TEXT_FORMAT)) {
@@ -233,69 +393,218 @@ public class POIFormat implements Serializable {
                 + zeroFormatPart.orElse("")
                 + textFormatPart.map(a -> posFormatPart.isPresent() ? ';' + a : a).orElse("");
 
-        return POIFormat.getInstance(this.locale, result).formatDetector;
+        return context().getFormat(this.locale, result).formatDetector;
     }
 
-    private POIFormat(Locale locale, String formatCode) {
+    private POIFormat(FormattingContext context, Locale locale, String formatCode,
+                      IValueFormatDetectorBridge formatDetector) {
+        this.context = context;
         this.locale = locale;
-        this.formatDetector = BridgeContainer.getDetectorStorage().getDetectorBridge(locale, formatCode);
+        this.formatDetector = formatDetector;
 
-        Matcher formatPartsMatcher = PARTS_DELIMITER.matcher(formatCode);
-        List<FormatPart> parts = new ArrayList<>();
+        List<String> sectionList = splitSections(formatCode);
+        this.formatPartCount = sectionList.size();
+        this.sections = sectionList.toArray(new String[0]);
+        this.conditions = new boolean[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            Matcher matcher = CONDITION_PREFIX.matcher(sections[i]);
+            // the condition of "[>1]" alone is the text of the section
+            conditions[i] = matcher.lookingAt() && matcher.end() < sections[i].length();
+        }
 
-        while (formatPartsMatcher.find()) {
-            try {
-                String valueDesc = formatPartsMatcher.group(0);
+        // With unconditional positive and negative sections, 0 always goes to
+        // the zero section, and it is the same value every time
+        this.zeroFolded = formatPartCount >= 3 && !hasCondition(POS) && !hasCondition(NEG);
+    }
 
-                // Strip out the semicolon if it's there
-                if (valueDesc.endsWith(";")) {
-                    valueDesc = valueDesc.substring(0, valueDesc.length() - 1);
+    /**
+     * Creates a format for another locale from the plan of a format: the
+     * sections and their conditions are shared, and the parts compiled so far
+     * are bound to the locale, see {@link FormatPart#rebind}.  The other parts
+     * are compiled on first use as usual.
+     */
+    private POIFormat(POIFormat plan, Locale locale) {
+        this.context = plan.context();
+        this.locale = locale;
+        this.formatDetector = context.getDetector(locale, plan.getFormatCode());
+        this.formatPartCount = plan.formatPartCount;
+        this.sections = plan.sections;
+        this.conditions = plan.conditions;
+        this.zeroFolded = plan.zeroFolded;
+        // what the sections are does not depend on the locale
+        this.metadata = plan.metadata;
+        for (int i = 0; i < parts.length(); i++) {
+            Object part = plan.parts.get(i);
+            if (part instanceof FormatPart && !((FormatPart) part).isHidden()) {
+                part = context.bind(FormatPart.rebind((FormatPart) part, locale,
+                        i < formatPartCount ? sections[i] : FormatHelper.TEXT_FORMAT));
+            }
+            parts.set(i, part);
+        }
+    }
+
+    /**
+     * @return The format code, from its sections.
+     */
+    private String getFormatCode() {
+        return String.join(";", sections);
+    }
+
+    /**
+     * Returns the code with each section spelled as by
+     * {@link FormatPart#canonicalize(String)}, so that codes like
+     * <tt>[RED]0</tt> and <tt>[Red]0</tt> are equal and have one id.
+     */
+    String getCanonicalCode() {
+        String result = canonicalCode;
+        if (result == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sections.length; i++) {
+                if (i > 0) {
+                    sb.append(';');
                 }
+                sb.append(FormatPart.canonicalize(sections[i]));
+            }
+            result = sb.toString();
+            canonicalCode = result;
+        }
+        return result;
+    }
 
-                parts.add(new FormatPart(locale, valueDesc));
-            } catch (RuntimeException e) {
-                LOG.warn("Invalid format: " + ValueFormatter.quote(formatPartsMatcher.group(0)), e);
-                parts.add(null);
+    /**
+     * Returns the part of a section, compiling it on first use.  Most cells
+     * only ever need the positive section.
+     *
+     * @param index The index of the section.
+     *
+     * @return The part, or <tt>null</tt> if the format does not have the
+     *         section or the section is not valid.
+     */
+    private FormatPart part(int index) {
+        Object part = parts.get(index);
+        if (part == null) {
+            part = compilePart(index);
+            if (!parts.compareAndSet(index, null, part)) {
+                part = parts.get(index);
             }
         }
+        return part == NO_PART ? null : (FormatPart) part;
+    }
 
-        FormatPart defaultTextFormat = new FormatPart(locale, FormatHelper.TEXT_FORMAT);
+    private Object compilePart(int index) {
+        if (index >= formatPartCount) {
+            return index == TEXT ? FormatPart.getInstance(locale, FormatHelper.TEXT_FORMAT) : NO_PART;
+        }
+        String valueDesc = sections[index];
+        if (valueDesc.isEmpty()) {
+            return FormatPart.hidden();
+        }
+        // an invalid section is reported to FormatDiagnostics once
+        FormatPart part = context().bind(FormatPart.find(locale, valueDesc));
+        return part != null ? part : NO_PART;
+    }
 
-        this.formatPartCount = parts.size();
+    /**
+     * Compiles all sections now rather than on first use.
+     *
+     * @return The text of the first section that is not valid, or
+     *         <tt>null</tt>.
+     */
+    String compileParts() {
+        String invalid = null;
+        for (int i = 0; i < parts.length(); i++) {
+            if (part(i) == null && i < formatPartCount && invalid == null) {
+                invalid = sections[i];
+            }
+        }
+        return invalid;
+    }
 
-        switch (formatPartCount) {
-            case 0:
-                this.negNumFmt = null;
-                this.zeroNumFmt = null;
-                this.posNumFmt = null;
-                this.textFmt = defaultTextFormat;
-                break;
-            case 1:
-                this.posNumFmt = parts.get(0);
-                this.negNumFmt = null;
-                this.zeroNumFmt = null;
-                this.textFmt = defaultTextFormat;
-                break;
-            case 2:
-                this.posNumFmt = parts.get(0);
-                this.negNumFmt = parts.get(1);
-                this.zeroNumFmt = null;
-                this.textFmt = defaultTextFormat;
-                break;
-            case 3:
-                this.posNumFmt = parts.get(0);
-                this.negNumFmt = parts.get(1);
-                this.zeroNumFmt = parts.get(2);
-                this.textFmt = defaultTextFormat;
-                break;
-            case 4:
-            default:
-                this.posNumFmt = parts.get(0);
-                this.negNumFmt = parts.get(1);
-                this.zeroNumFmt = parts.get(2);
-                this.textFmt = parts.get(3);
-                break;
+    private FormatPart posNumFmt() {
+        return part(POS);
+    }
+
+    private FormatPart negNumFmt() {
+        return part(NEG);
+    }
+
+    private FormatPart zeroNumFmt() {
+        return part(ZERO);
+    }
+
+    private FormatPart textFmt() {
+        return part(TEXT);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the format has the section and it has a
+     * condition.
+     */
+    private boolean hasCondition(int index) {
+        return index < formatPartCount && conditions[index];
+    }
+
+    /**
+     * Returns <tt>true</tt> if the section has a condition and the value
+     * passes it.
+     */
+    private boolean passes(int index, double val) {
+        if (!hasCondition(index)) {
+            return false;
         }
+        FormatPart part = part(index);
+        return part != null && part.applies(val);
+    }
+
+    /**
+     * Splits a format code into its sections.  A semicolon does not end a
+     * section if it is quoted, escaped with a backslash, or the character of
+     * a padding (<tt>_</tt>) or fill (<tt>*</tt>).  Empty sections are kept,
+     * as they hide the values they apply to.
+     *
+     * @param formatCode The format code.
+     *
+     * @return The sections, without the semicolons; none for an empty code.
+     */
+    static List<String> splitSections(String formatCode) {
+        List<String> sections = new ArrayList<>();
+        if (formatCode.isEmpty()) {
+            return sections;
+        }
+        int start = 0;
+        int len = formatCode.length();
+        for (int i = 0; i < len; i++) {
+            char ch = formatCode.charAt(i);
+            if (ch == '\\' || ch == '_' || ch == '*') {
+                i++;
+            } else if (ch == '"') {
+                int end = closingQuote(formatCode, i + 1);
+                if (end >= 0) {
+                    i = end;
+                }
+            } else if (ch == ';') {
+                sections.add(formatCode.substring(start, i));
+                start = i + 1;
+            }
+        }
+        sections.add(formatCode.substring(start));
+        return sections;
+    }
+
+    /**
+     * Returns the index of the quote that closes quoted text, or -1 if the
+     * quote is not closed, in which case it is just a character.
+     */
+    private static int closingQuote(String formatCode, int from) {
+        for (int i = from; i < formatCode.length(); i++) {
+            char ch = formatCode.charAt(i);
+            if (ch == '\\') {
+                i++;
+            } else if (ch == '"') {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -308,37 +617,480 @@ public class POIFormat implements Serializable {
      * @return The result, in a {@link PoiResult}.
      */
     public PoiResult apply(Object value) {
+        FormatMemo memo = this.memo;
+        if (memo != null) {
+            if (value instanceof Double) {
+                return memoized(memo, FormatMemo.NUMBER, Double.doubleToRawLongBits((Double) value), value);
+            } else if (value instanceof Boolean) {
+                return memoized(memo, FormatMemo.BOOLEAN, (Boolean) value ? 1 : 0, value);
+            } else if (value instanceof LocalDate) {
+                return memoized(memo, FormatMemo.DATE, ((LocalDate) value).toEpochDay(), value);
+            }
+        }
+        return render(value);
+    }
+
+    /**
+     * Same as {@link #apply(Object)} for a number.
+     *
+     * @param value The number
+     *
+     * @return The result, in a {@link PoiResult}.
+     */
+    public PoiResult apply(double value) {
+        FormatMemo memo = this.memo;
+        if (memo != null) {
+            return memoized(memo, FormatMemo.NUMBER, Double.doubleToRawLongBits(value), value);
+        }
+        return render(value);
+    }
+
+    /**
+     * Same as {@link #apply(Object)} for the date and time of an instant in a
+     * time zone.
+     *
+     * @param instant The instant.
+     * @param zone    The time zone of the date and time to format.
+     *
+     * @return The result, in a {@link PoiResult}.
+     */
+    public PoiResult apply(Instant instant, ZoneId zone) {
+        return render(LocalDateTime.ofInstant(instant, zone));
+    }
+
+    /**
+     * Same as {@link #apply(Object)} for the date and time of a time stamp in
+     * milliseconds since 1970-01-01T00:00Z, e.g. of an event log, without an
+     * {@link Instant} for a time zone that is a {@link ZoneOffset}.
+     *
+     * @param epochMillis The time stamp.
+     * @param zone        The time zone of the date and time to format.
+     *
+     * @return The result, in a {@link PoiResult}.
+     */
+    public PoiResult applyEpochMillis(long epochMillis, ZoneId zone) {
+        ZoneOffset offset = zone instanceof ZoneOffset ? (ZoneOffset) zone
+                : zone.getRules().getOffset(Instant.ofEpochMilli(epochMillis));
+        IDateTimeUtilsBridge dateTimeUtils = context().getDateTimeUtils();
+        if (dateTimeUtils instanceof SerialDates) {
+            // date parts look the day up in the calendar table
+            long localMillis = epochMillis + offset.getTotalSeconds() * 1000L;
+            long epochDay = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+            long millisOfDay = Math.floorMod(localMillis, MILLIS_PER_DAY);
+            FormatPart part = getApplicableFormatPart(((SerialDates) dateTimeUtils).toSerial(epochDay,
+                    millisOfDay * 1_000_000L));
+            PoiResult result = part.applyEpochDay(epochDay, (int) (millisOfDay / 1000));
+            if (result != null) {
+                return result;
+            }
+        }
+        return render(LocalDateTime.ofEpochSecond(Math.floorDiv(epochMillis, 1000L),
+                (int) Math.floorMod(epochMillis, 1000L) * 1_000_000, offset));
+    }
+
+    /**
+     * Same as {@link #apply(Object)} for a long, e.g. an ID.  Number formats
+     * write all its digits, also beyond the precision of a double.
+     *
+     * @param value The number
+     *
+     * @return The result, in a {@link PoiResult}.
+     */
+    public PoiResult apply(long value) {
+        return render(value);
+    }
+
+    private PoiResult memoized(FormatMemo memo, int kind, long bits, Object value) {
+        PoiResult result = memo.get(kind, bits);
+        if (result == null) {
+            result = render(value);
+            memo.put(kind, bits, result);
+        }
+        return result;
+    }
+
+    /**
+     * Switches the memo of recent results on or off.  With the memo on,
+     * {@link #apply(Object)} remembers the results for doubles, booleans and
+     * {@link LocalDate}s in a fixed number of slots, and returns the same
+     * {@link PoiResult} for a value again as long as its slot has not been
+     * taken by another value.  This pays off for the values that repeat all
+     * over a sheet, like 0, 1, flags, and the same date down a column; use the
+     * hit and miss counts to decide whether to keep it on for a format.
+     * <p>
+     * Format instances are shared, so the memo is on for everyone using this
+     * format.  Switching it on again starts with an empty memo and counts.
+     *
+     * @param capacity The number of results to remember, rounded up to a power
+     *                 of two; 0 switches the memo off.
+     */
+    public void setMemoCapacity(int capacity) {
+        this.memo = capacity == 0 ? null : new FormatMemo(capacity);
+    }
+
+    /**
+     * @return The number of slots of the memo, 0 if it is off.
+     */
+    public int getMemoCapacity() {
+        FormatMemo memo = this.memo;
+        return memo == null ? 0 : memo.getCapacity();
+    }
+
+    /**
+     * @return The number of results taken from the memo since it was switched
+     *         on, 0 if it is off.
+     */
+    public long getMemoHits() {
+        FormatMemo memo = this.memo;
+        return memo == null ? 0 : memo.getHits();
+    }
+
+    /**
+     * @return The number of results that had to be computed since the memo was
+     *         switched on, 0 if it is off.
+     */
+    public long getMemoMisses() {
+        FormatMemo memo = this.memo;
+        return memo == null ? 0 : memo.getMisses();
+    }
+
+    /**
+     * Applies the format to the value, without the memo.
+     *
+     * @param value The value
+     *
+     * @return The result, in a {@link PoiResult}.
+     */
+    protected PoiResult render(Object value) {
         if (value instanceof Number) {
-            Number num = (Number) value;
-            double val = num.doubleValue();
-            if (val < 0 && ((formatPartCount == 2 && !posNumFmt.hasCondition() && !negNumFmt.hasCondition())
-                    || (formatPartCount == 3 && !negNumFmt.hasCondition())
-                    || (formatPartCount == 4 && !negNumFmt.hasCondition()))) {
-                // The negative number format has the negative formatting required,
-                // e.g. minus sign or brackets, so pass a positive value so that
-                // the default leading minus sign is not also output
-                return negNumFmt.apply(-val);
+            double val = ((Number) value).doubleValue();
+            if (usesUnsignedNegativePart(val)) {
+                FormatPart part = negNumFmt();
+                return part.apply(takesExact(part, value) ? NumberFormatter.negate((Number) value) : -val);
+            } else if (zeroFolded && Double.doubleToRawLongBits(val) == 0) {
+                return zeroResult();
             } else {
-                return getApplicableFormatPart(val).apply(val);
+                FormatPart part = getApplicableFormatPart(val);
+                return part.apply(takesExact(part, value) ? value : val);
             }
-        } else if (value instanceof LocalDate) {
-            // Don't know (and can't get) the workbook date windowing (1900 or 1904)
-            // so assume 1900 date windowing
-            int numericValue = BridgeContainer.getDateTimeUtils().getSerialNumberFromDate((LocalDate) value);
-            if (isValidExcelDate(numericValue)) {
-                return getApplicableFormatPart(numericValue).apply(value);
+        } else if (isDateValue(value)) {
+            FormatPart part = getApplicableDatePart(value);
+            return part.apply(dateInput(part, value));
+        } else {
+            return textFmt().apply(value);
+        }
+    }
+
+    /**
+     * Writes the text of applying the format to the given value straight into
+     * the buffer as UTF-8.  The color of the result is not reported.
+     *
+     * @param out   The buffer to write to.
+     * @param value The value.
+     *
+     * @return The number of bytes written.
+     */
+    public int formatTo(ByteBuffer out, Object value) {
+        return formatTo(out, value, ByteEncoding.UTF_8);
+    }
+
+    /**
+     * Writes the text of applying the format to the given value straight into
+     * the buffer, without building an intermediate string.  The color of the
+     * result is not reported.
+     *
+     * @param out      The buffer to write to.
+     * @param value    The value.
+     * @param encoding The encoding of the output.
+     *
+     * @return The number of bytes written.
+     */
+    public int formatTo(ByteBuffer out, Object value, ByteEncoding encoding) {
+        if (value instanceof Number) {
+            double val = ((Number) value).doubleValue();
+            if (usesUnsignedNegativePart(val)) {
+                FormatPart part = negNumFmt();
+                return part.formatTo(out, takesExact(part, value) ? NumberFormatter.negate((Number) value) : -val,
+                        encoding);
+            } else {
+                FormatPart part = getApplicableFormatPart(val);
+                return part.formatTo(out, takesExact(part, value) ? value : val, encoding);
+            }
+        } else if (isDateValue(value)) {
+            FormatPart part = getApplicableDatePart(value);
+            return part.formatTo(out, dateInput(part, value), encoding);
+        } else {
+            return textFmt().formatTo(out, value, encoding);
+        }
+    }
+
+    /**
+     * Reports the result of applying the format to the given value as typed
+     * runs: literal text, digits, padding, fill and color.  Concatenating the
+     * runs, with a space for each padding and three copies of the character
+     * for each fill, gives the text of {@link #apply(Object)}.
+     *
+     * @param sink  The sink to report to.
+     * @param value The value.
+     */
+    public void formatTo(FormatSink sink, Object value) {
+        if (value instanceof Number) {
+            double val = ((Number) value).doubleValue();
+            if (usesUnsignedNegativePart(val)) {
+                FormatPart part = negNumFmt();
+                part.formatTo(sink, takesExact(part, value) ? NumberFormatter.negate((Number) value) : -val);
             } else {
+                FormatPart part = getApplicableFormatPart(val);
+                part.formatTo(sink, takesExact(part, value) ? value : val);
+            }
+        } else if (isDateValue(value)) {
+            FormatPart part = getApplicableDatePart(value);
+            part.formatTo(sink, dateInput(part, value));
+        } else {
+            textFmt().formatTo(sink, value);
+        }
+    }
+
+    /**
+     * Returns a key for the number such that numbers with equal keys are
+     * rendered identically by {@link #apply(Object)}, text and color.  The key
+     * combines the format section the number goes to with the number rounded
+     * to the precision of that section, after scaling by <tt>%</tt> and
+     * trailing commas.  It lets a caller skip formatting a value whose display
+     * did not change, or share one result between values.
+     * <p>
+     * Only plain number sections (no exponent, fraction or date) and sections
+     * that do not show the value have keys; otherwise
+     * {@link #NO_RENDER_KEY} is returned and the values have to be compared
+     * some other way.
+     *
+     * @param value The number.
+     *
+     * @return The key, or {@link #NO_RENDER_KEY}.
+     */
+    public long renderKey(double value) {
+        FormatPart part;
+        double partValue = value;
+        if (usesUnsignedNegativePart(value)) {
+            part = negNumFmt();
+            partValue = -value;
+        } else {
+            part = getApplicableFormatPart(value);
+        }
+        long section;
+        if (part == null) {
+            return NO_RENDER_KEY;
+        } else if (part == posNumFmt()) {
+            section = 0;
+        } else if (part == negNumFmt()) {
+            section = 1;
+        } else if (part == zeroNumFmt()) {
+            section = 2;
+        } else {
+            // made up for this value
+            return NO_RENDER_KEY;
+        }
+        long key = part.renderKey(partValue);
+        return key == NO_RENDER_KEY ? NO_RENDER_KEY : key | section << 61;
+    }
+
+    /**
+     * Returns a hash of what {@link #apply(Object)} renders for the number,
+     * text and color, without building the text.  Equal renderings have equal
+     * hashes, so a cache only needs to redraw a cell when the hash changes.
+     *
+     * @param value The number.
+     *
+     * @return The same as {@link #displayHash(CharSequence, Integer)} of the
+     *         result of {@link #apply(Object)}.
+     */
+    public long displayHash(double value) {
+        if (usesUnsignedNegativePart(value)) {
+            return negNumFmt().displayHash(-value);
+        } else {
+            return getApplicableFormatPart(value).displayHash(value);
+        }
+    }
+
+    /**
+     * Returns a 64-bit FNV-1a hash of the text and color of a rendering.
+     *
+     * @param text The formatted text.
+     * @param argb The color, or <tt>null</tt> if there is none.
+     *
+     * @return The hash.
+     */
+    public static long displayHash(CharSequence text, Integer argb) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+        }
+        // 2^32 is no ARGB value, so "no color" differs from every color
+        long color = argb == null ? 1L << 32 : argb & 0xFFFFFFFFL;
+        return (hash ^ color) * FNV_PRIME;
+    }
+
+    /**
+     * Returns the length of the text of {@link #apply(Object)} for the number,
+     * without building the text where the format allows it.  This is what
+     * fitting a column to its content needs.
+     *
+     * @param value The number.
+     *
+     * @return The number of characters of the formatted value.
+     */
+    public int measure(double value) {
+        if (usesUnsignedNegativePart(value)) {
+            return negNumFmt().measure(-value);
+        } else {
+            return getApplicableFormatPart(value).measure(value);
+        }
+    }
+
+    /**
+     * Returns the length of the widest formatted value of the column.
+     *
+     * @param values The numbers of the column.
+     *
+     * @return The largest {@link #measure(double)} of the values, 0 if there
+     *         are none.
+     */
+    public int measureColumn(double[] values) {
+        return measureColumn(values, 0, values.length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the length of the widest formatted value of a range of a column.
+     * Large ranges are measured in parallel chunks, and measuring stops as
+     * soon as a value is found that is at least <tt>limit</tt> characters
+     * long, as a column is not made wider than that anyway.
+     *
+     * @param values The numbers of the column.
+     * @param from   The index of the first value to measure.
+     * @param to     The index after the last value to measure.
+     * @param limit  The width at which to stop measuring.
+     *
+     * @return The largest {@link #measure(double)} of the values, capped at
+     *         <tt>limit</tt>; 0 if the range is empty.
+     */
+    public int measureColumn(double[] values, int from, int to, int limit) {
+        if (from < 0 || to > values.length || from > to) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", length " + values.length);
+        }
+        if (to - from <= MEASURE_CHUNK_SIZE) {
+            return Math.min(measureRange(values, from, to, limit, null), limit);
+        }
+        AtomicInteger widest = new AtomicInteger();
+        int chunks = (to - from + MEASURE_CHUNK_SIZE - 1) / MEASURE_CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int start = from + chunk * MEASURE_CHUNK_SIZE;
+            int end = Math.min(to, start + MEASURE_CHUNK_SIZE);
+            widest.accumulateAndGet(measureRange(values, start, end, limit, widest), Math::max);
+        });
+        return Math.min(widest.get(), limit);
+    }
+
+    private int measureRange(double[] values, int from, int to, int limit, AtomicInteger widest) {
+        int max = 0;
+        for (int i = from; i < to && max < limit; i++) {
+            max = Math.max(max, measure(values[i]));
+            // every so often, see if another chunk has already hit the limit
+            if (widest != null && (i & 0xFF) == 0 && widest.get() >= limit) {
+                break;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the result for 0, which only needs to be computed once, unless
+     * it is a date.
+     */
+    private PoiResult zeroResult() {
+        PoiResult result = zeroResult;
+        if (result == null) {
+            FormatPart zeroNumFmt = zeroNumFmt();
+            result = zeroNumFmt.apply(0.0);
+            if (zeroNumFmt.getCellFormatType() != FormatType.DATE) {
+                zeroResult = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the value is rendered by the negative number
+     * format without its sign.  The negative number format has the negative
+     * formatting required, e.g. minus sign or brackets, so it gets a positive
+     * value so that the default leading minus sign is not also output.
+     *
+     * @param val The value.
+     *
+     * @return <tt>true</tt> if the negated value goes to the negative part.
+     */
+    private boolean usesUnsignedNegativePart(double val) {
+        return val < 0 && ((formatPartCount == 2 && !hasCondition(POS) && !hasCondition(NEG))
+                || (formatPartCount == 3 && !hasCondition(NEG))
+                || (formatPartCount == 4 && !hasCondition(NEG)));
+    }
+
+    /**
+     * Returns <tt>true</tt> if the part gets the number itself rather than its
+     * double: number formats write all the digits of integers and
+     * {@link java.math.BigDecimal}s.
+     */
+    private static boolean takesExact(FormatPart part, Object value) {
+        return part.getCellFormatType() == FormatType.NUMBER && NumberFormatter.isExact(value);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the value is a date, a time or an elapsed time
+     * that is formatted by the part for its serial number.
+     */
+    private static boolean isDateValue(Object value) {
+        return value instanceof LocalDate || value instanceof LocalDateTime
+                || value instanceof LocalTime || value instanceof Duration;
+    }
+
+    /**
+     * Returns the {@link FormatPart} that applies to a {@link LocalDate}, a
+     * {@link LocalDateTime}, a {@link LocalTime} or a {@link Duration}.
+     *
+     * @param value The date value.
+     *
+     * @return The {@link FormatPart} that applies to the value.
+     */
+    private FormatPart getApplicableDatePart(Object value) {
+        return getApplicableFormatPart(toSerial(value));
+    }
+
+    /**
+     * Returns the value for the part of a date value: number and elapsed time
+     * parts get the serial number.
+     */
+    private Object dateInput(FormatPart part, Object value) {
+        FormatType type = part.getCellFormatType();
+        return type == FormatType.NUMBER || type == FormatType.ELAPSED ? toSerial(value) : value;
+    }
+
+    /**
+     * Returns the serial number of a date value.  A {@link LocalTime} or a
+     * {@link Duration} is a number of days.
+     */
+    private double toSerial(Object value) {
+        // Don't know (and can't get) the workbook date windowing (1900 or 1904)
+        // so assume 1900 date windowing
+        if (value instanceof LocalDate) {
+            int numericValue = context().getDateTimeUtils().getSerialNumberFromDate((LocalDate) value);
+            if (!isValidExcelDate(numericValue)) {
                 throw new IllegalArgumentException(
                         "value " + numericValue + " of date " + value + " is not a valid Excel date");
             }
+            return numericValue;
         } else if (value instanceof LocalDateTime) {
-            // Don't know (and can't get) the workbook date windowing (1900 or 1904)
-            // so assume 1900 date windowing
-            double numericValue = BridgeContainer.getDateTimeUtils().getSerialNumberFromDateTime((LocalDateTime) value);
-            return getApplicableFormatPart(numericValue).apply(value);
-        } else {
-            return textFmt.apply(value);
+            return context().getDateTimeUtils().getSerialNumberFromDateTime((LocalDateTime) value);
         }
+        return ElapsedTimeFormatter.toDays(value);
     }
 
     private static boolean isValidExcelDate(double value) {
@@ -346,7 +1098,9 @@ public class POIFormat implements Serializable {
     }
 
     public boolean isDate(double value) {
-        return this.getApplicableFormatPart(value).getCellFormatType() == FormatType.DATE;
+        int index = getApplicableSection(value);
+        FormatMetadata.Section section = index >= 0 ? getMetadata().getSection(index) : null;
+        return section != null && section.isDate();
     }
 
     public int getNumberOfDecimalPlaces(Object value) {
@@ -354,8 +1108,15 @@ public class POIFormat implements Serializable {
             return 2;
         }
 
-        FormatPart formatPart = this.getApplicableFormatPart(value);
-        return formatPart.getNumberOfDecimalPlaces();
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException("value must be a Number");
+        }
+        int index = getApplicableSection(((Number) value).doubleValue());
+        if (index < 0) {
+            // "General" and the "###" placeholder have no decimal places
+            return 0;
+        }
+        return getMetadata().getSection(index).getDecimalPlaces();
     }
 
     /**
@@ -372,54 +1133,71 @@ public class POIFormat implements Serializable {
 
             double val = ((Number) value).doubleValue();
 
-            if (formatPartCount == 1) {
-                if (posNumFmt != null && (!posNumFmt.hasCondition()
-                        || (posNumFmt.hasCondition() && posNumFmt.applies(val)))) {
-                    return posNumFmt;
-                } else {
-                    return new FormatPart(this.locale, "General");
-                }
-            } else if (formatPartCount == 2) {
-                if (posNumFmt != null && ((!posNumFmt.hasCondition() && val >= 0)
-                        || (posNumFmt.hasCondition() && posNumFmt.applies(val)))) {
-                    return posNumFmt;
-                } else if (!negNumFmt.hasCondition()
-                        || (negNumFmt.hasCondition() && negNumFmt.applies(val))) {
-                    return negNumFmt;
-                } else {
-                    // Return ###...### (255 #s) to match Excel 2007 behaviour
-                    return new FormatPart(this.locale, QUOTE + FormatHelper.INVALID_VALUE_FOR_FORMAT + QUOTE);
-                }
+            int index = getApplicableSection(val);
+            if (index == GENERAL_SECTION) {
+                return FormatPart.getInstance(this.locale, "General");
+            } else if (index == INVALID_VALUE_SECTION) {
+                // Return ###...### (255 #s) to match Excel 2007 behaviour
+                return FormatPart.getInstance(this.locale, QUOTE + FormatHelper.INVALID_VALUE_FOR_FORMAT + QUOTE);
             } else {
-                if ((!posNumFmt.hasCondition() && val > 0)
-                        || (posNumFmt.hasCondition() && posNumFmt.applies(val))) {
-                    return posNumFmt;
-                } else if ((!negNumFmt.hasCondition() && val < 0)
-                        || (negNumFmt.hasCondition() && negNumFmt.applies(val))) {
-                    return negNumFmt;
-                    // Only the first two format parts can have conditions
-                } else {
-                    return zeroNumFmt;
-                }
+                return part(index);
             }
         } else {
             throw new IllegalArgumentException("value must be a Number");
         }
     }
 
+    /**
+     * Returns the index of the section that applies to the number, like
+     * {@link #getApplicableFormatPart(Object)} but without getting a part.
+     *
+     * @param val The value.
+     * @return The index of the section, {@link #GENERAL_SECTION} or
+     *         {@link #INVALID_VALUE_SECTION}.
+     */
+    private int getApplicableSection(double val) {
+        if (formatPartCount == 1) {
+            if ((!hasCondition(POS) && posNumFmt() != null) || passes(POS, val)) {
+                return POS;
+            } else {
+                return GENERAL_SECTION;
+            }
+        } else if (formatPartCount == 2) {
+            if ((!hasCondition(POS) && val >= 0 && posNumFmt() != null) || passes(POS, val)) {
+                return POS;
+            } else if (!hasCondition(NEG) || passes(NEG, val)) {
+                return NEG;
+            } else {
+                return INVALID_VALUE_SECTION;
+            }
+        } else {
+            if ((!hasCondition(POS) && val > 0) || passes(POS, val)) {
+                return POS;
+            } else if ((!hasCondition(NEG) && val < 0) || passes(NEG, val)) {
+                return NEG;
+                // Only the first two format parts can have conditions
+            } else {
+                return ZERO;
+            }
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
             return true;
         if (obj instanceof POIFormat) {
+            // the same code formats serials as other dates in another context
             POIFormat that = (POIFormat) obj;
-            return this.formatDetector.equals(that.formatDetector);
+            return context() == that.context() && locale.equals(that.locale)
+                    && getCanonicalCode().equals(that.getCanonicalCode());
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return this.formatDetector.hashCode();
+        // the string keeps its hash
+        return 31 * locale.hashCode() + getCanonicalCode().hashCode();
     }
 }
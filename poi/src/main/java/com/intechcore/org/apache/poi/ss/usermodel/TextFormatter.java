@@ -23,6 +23,7 @@ package com.intechcore.org.apache.poi.ss.usermodel;
 
 import com.intechcore.org.apache.poi.util.FormatHelper;
 
+import java.nio.ByteBuffer;
 import java.util.Locale;
 
 /**
@@ -35,6 +36,14 @@ public class TextFormatter extends ValueFormatter {
     protected final int[] textPos;
     protected final String desc;
 
+    /** The literal text around the "@" positions, in first-to-last order. */
+    private final String[] literals;
+    /** Same as {@link #literals}, with the padding and fill marks. */
+    private final String[] markedLiterals;
+    private final boolean layoutMarks;
+    private volatile byte[][] utf8Literals;
+    private volatile byte[][] latin1Literals;
+
 
     static final ValueFormatter SIMPLE_TEXT = new TextFormatter(FormatHelper.TEXT_FORMAT);
 
@@ -43,7 +52,7 @@ public class TextFormatter extends ValueFormatter {
 
         final int[] numPlaces = new int[1];
 
-        desc = FormatPart.parseFormat(format, FormatType.TEXT,
+        String markedDesc = FormatPart.parseFormat(format, FormatType.TEXT,
                 (m, part, type, desc) -> {
                     if (part.equals(FormatHelper.TEXT_FORMAT)) {
                         numPlaces[0]++;
@@ -51,6 +60,8 @@ public class TextFormatter extends ValueFormatter {
                     }
                     return null;
                 }).toString();
+        desc = FormatPart.expandLayoutMarks(markedDesc);
+        layoutMarks = FormatPart.usesLayoutMarks(format);
 
         // Remember the "@" positions in last-to-first order (to make insertion easier)
         textPos = new int[numPlaces[0]];
@@ -59,6 +70,19 @@ public class TextFormatter extends ValueFormatter {
             textPos[i] = desc.lastIndexOf("\u0000", pos);
             pos = textPos[i] - 1;
         }
+
+        literals = desc.split("\u0000", -1);
+        markedLiterals = markedDesc.split("\u0000", -1);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the text has no "@", so that every value is
+     * formatted the same.
+     *
+     * @return <tt>true</tt> if the formatted text does not depend on the value.
+     */
+    boolean isConstant() {
+        return textPos.length == 0;
     }
 
     /** {@inheritDoc} */
@@ -75,6 +99,68 @@ public class TextFormatter extends ValueFormatter {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The literal text of the format is encoded only once.
+     */
+    @Override
+    public int formatTo(ByteBuffer out, Object obj, ByteEncoding encoding) {
+        String text = obj instanceof Boolean ? (((Boolean) obj) ? "TRUE" : "FALSE") : obj.toString();
+        byte[][] encoded = encodedLiterals(encoding);
+        int written = 0;
+        for (int i = 0; i < encoded.length; i++) {
+            if (i > 0) {
+                written += encoding.encode(text, out);
+            }
+            out.put(encoded[i]);
+            written += encoded[i].length;
+        }
+        return written;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The text value is always reported as literal text.
+     */
+    @Override
+    public void formatTo(FormatSink sink, Object obj) {
+        String text = obj instanceof Boolean ? (((Boolean) obj) ? "TRUE" : "FALSE") : obj.toString();
+        for (int i = 0; i < markedLiterals.length; i++) {
+            if (i > 0 && !text.isEmpty()) {
+                sink.literal(text, 0, text.length());
+            }
+            writeRuns(markedLiterals[i], layoutMarks, false, sink);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Without an "@", the text does not depend on the value at all.
+     */
+    @Override
+    public long renderKey(double value) {
+        return isConstant() ? 0 : POIFormat.NO_RENDER_KEY;
+    }
+
+    private byte[][] encodedLiterals(ByteEncoding encoding) {
+        byte[][] result = encoding == ByteEncoding.UTF_8 ? utf8Literals : latin1Literals;
+        if (result == null) {
+            result = new byte[literals.length][];
+            for (int i = 0; i < literals.length; i++) {
+                result[i] = encoding.toBytes(literals[i]);
+            }
+            if (encoding == ByteEncoding.UTF_8) {
+                utf8Literals = result;
+            } else {
+                latin1Literals = result;
+            }
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
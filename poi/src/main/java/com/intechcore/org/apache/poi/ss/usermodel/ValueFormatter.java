@@ -21,6 +21,8 @@
 ==================================================================== */
 package com.intechcore.org.apache.poi.ss.usermodel;
 
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
 import java.util.Locale;
 import java.util.logging.Logger;
 
@@ -58,6 +60,12 @@ public abstract class ValueFormatter {
     static final Logger logger = Logger.getLogger(
             ValueFormatter.class.getName());
 
+    /** Buffers above this capacity are not kept for reuse. */
+    private static final int MAX_SCRATCH_CAPACITY = 1024;
+
+    /** Per-thread buffer for the paths that do not need a resulting string. */
+    private static final ThreadLocal<StringBuffer> SCRATCH = ThreadLocal.withInitial(StringBuffer::new);
+
     /**
      * Format a value according the format string.
      * <p/>
@@ -84,6 +92,114 @@ public abstract class ValueFormatter {
      */
     public abstract void simpleValue(StringBuffer toAppendTo, Object value);
 
+    /**
+     * Format a value like {@link #formatValue(StringBuffer, Object)}, but
+     * leave the padding and fill parts as the marks described in
+     * {@link FormatPart#PADDING_MARK}.  Only called if
+     * {@link #hasLayoutMarks()} is <tt>true</tt>.
+     *
+     * @param toAppendTo The buffer to append to.
+     * @param value      The value to format.
+     */
+    protected void formatMarked(StringBuffer toAppendTo, Object value) {
+        formatValue(toAppendTo, value);
+    }
+
+    /**
+     * Returns <tt>true</tt> if {@link #formatMarked(StringBuffer, Object)}
+     * leaves padding and fill marks in its output.
+     *
+     * @return <tt>true</tt> if the output has padding and fill marks.
+     */
+    protected boolean hasLayoutMarks() {
+        return false;
+    }
+
+    /**
+     * Formats the value, reporting the result as typed runs.
+     *
+     * @param sink  The sink to report to.
+     * @param value The value to format.
+     */
+    public void formatTo(FormatSink sink, Object value) {
+        StringBuffer sb = scratchBuffer();
+        boolean marks = hasLayoutMarks();
+        if (marks) {
+            formatMarked(sb, value);
+        } else {
+            formatValue(sb, value);
+        }
+        writeRuns(sb, marks, isNumeric(value), sink);
+    }
+
+    /**
+     * Formats the value in the most basic way, reporting the result as typed
+     * runs.
+     *
+     * @param sink  The sink to report to.
+     * @param value The value to format.
+     */
+    public void simpleFormatTo(FormatSink sink, Object value) {
+        StringBuffer sb = scratchBuffer();
+        simpleValue(sb, value);
+        writeRuns(sb, false, isNumeric(value), sink);
+    }
+
+    private static boolean isNumeric(Object value) {
+        return !(value instanceof CharSequence || value instanceof Boolean);
+    }
+
+    /**
+     * Splits formatted text into runs.
+     *
+     * @param text   The formatted text.
+     * @param marks  If the text has padding and fill marks.
+     * @param digits If runs of digits are to be reported as such, rather than
+     *               as literal text.
+     * @param sink   The sink to report to.
+     */
+    static void writeRuns(CharSequence text, boolean marks, boolean digits, FormatSink sink) {
+        int len = text.length();
+        int runStart = 0;
+        boolean inDigits = false;
+        for (int i = 0; i < len; i++) {
+            char ch = text.charAt(i);
+            if (marks && FormatPart.isLayoutMark(ch)) {
+                flushRun(text, runStart, i, inDigits, sink);
+                if (ch < FormatPart.FILL_MARK) {
+                    sink.padding((char) (ch - FormatPart.PADDING_MARK));
+                } else {
+                    sink.fill((char) (ch - FormatPart.FILL_MARK));
+                }
+                runStart = i + 1;
+                inDigits = false;
+                continue;
+            }
+            boolean isDigit = digits && (Character.isDigit(ch) || (inDigits && isSeparator(ch)
+                    && i + 1 < len && Character.isDigit(text.charAt(i + 1))));
+            if (isDigit != inDigits) {
+                flushRun(text, runStart, i, inDigits, sink);
+                runStart = i;
+                inDigits = isDigit;
+            }
+        }
+        flushRun(text, runStart, len, inDigits, sink);
+    }
+
+    private static void flushRun(CharSequence text, int start, int end, boolean digits, FormatSink sink) {
+        if (start < end) {
+            if (digits) {
+                sink.digits(text, start, end);
+            } else {
+                sink.literal(text, start, end);
+            }
+        }
+    }
+
+    private static boolean isSeparator(char ch) {
+        return ch == '.' || ch == ',' || ch == '\'' || ch == '\u00A0' || ch == '\u202F' || ch == '\u2019';
+    }
+
     /**
      * Formats the value, returning the resulting string.
      *
@@ -110,6 +226,108 @@ public abstract class ValueFormatter {
         return sb.toString();
     }
 
+    /**
+     * Formats the value straight into the buffer as UTF-8, without building a
+     * string.
+     *
+     * @param out   The buffer to write to.
+     * @param value The value to format.
+     *
+     * @return The number of bytes written.
+     */
+    public int formatTo(ByteBuffer out, Object value) {
+        return formatTo(out, value, ByteEncoding.UTF_8);
+    }
+
+    /**
+     * Formats the value straight into the buffer, without building a string.
+     *
+     * @param out      The buffer to write to.
+     * @param value    The value to format.
+     * @param encoding The encoding of the output.
+     *
+     * @return The number of bytes written.
+     */
+    public int formatTo(ByteBuffer out, Object value, ByteEncoding encoding) {
+        StringBuffer sb = scratchBuffer();
+        formatValue(sb, value);
+        return encoding.encode(sb, out);
+    }
+
+    /**
+     * Formats the value in the most basic way straight into the buffer.
+     *
+     * @param out      The buffer to write to.
+     * @param value    The value to format.
+     * @param encoding The encoding of the output.
+     *
+     * @return The number of bytes written.
+     */
+    public int simpleFormatTo(ByteBuffer out, Object value, ByteEncoding encoding) {
+        StringBuffer sb = scratchBuffer();
+        simpleValue(sb, value);
+        return encoding.encode(sb, out);
+    }
+
+    /**
+     * Returns the length of the text {@link #formatValue(StringBuffer, Object)}
+     * produces for the number.  Subclasses that can tell the length from the
+     * parsed format override this so that the text is not built at all.
+     *
+     * @param value The number to measure.
+     *
+     * @return The number of characters of the formatted value.
+     */
+    public int measure(double value) {
+        StringBuffer sb = scratchBuffer();
+        formatValue(sb, value);
+        return sb.length();
+    }
+
+    /**
+     * Returns the length of the text {@link #simpleValue(StringBuffer, Object)}
+     * produces for the number.
+     *
+     * @param value The number to measure.
+     *
+     * @return The number of characters of the formatted value.
+     */
+    public int simpleMeasure(double value) {
+        StringBuffer sb = scratchBuffer();
+        simpleValue(sb, value);
+        return sb.length();
+    }
+
+    /**
+     * Returns a key for the number such that numbers with equal keys are
+     * formatted to the same text.  The key is non-negative and below
+     * <tt>2^61</tt>.  The default is {@link POIFormat#NO_RENDER_KEY}, which
+     * means that the formatter cannot tell.
+     *
+     * @param value The number.
+     *
+     * @return The key, or {@link POIFormat#NO_RENDER_KEY}.
+     */
+    public long renderKey(double value) {
+        return POIFormat.NO_RENDER_KEY;
+    }
+
+    /**
+     * Returns an empty buffer owned by the current thread.  The content is
+     * only valid until the next call on the same thread.
+     *
+     * @return An empty buffer.
+     */
+    static StringBuffer scratchBuffer() {
+        StringBuffer sb = SCRATCH.get();
+        if (sb.capacity() > MAX_SCRATCH_CAPACITY) {
+            sb = new StringBuffer();
+            SCRATCH.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
     /**
      * Returns the input string, surrounded by quotes.
      *
@@ -125,10 +343,51 @@ public abstract class ValueFormatter {
         return locale;
     }
 
+    /**
+     * Returns a formatter of the same format for another locale, sharing what
+     * was parsed.  Formatters that do not depend on the locale return
+     * themselves.
+     *
+     * @param locale The locale.
+     *
+     * @return The formatter for the locale.
+     */
+    protected ValueFormatter withLocale(Locale locale) {
+        return this;
+    }
+
+    /**
+     * Returns a formatter of the same format for another date system, given
+     * by the date of the serial number 0.  Formatters that do not show dates
+     * return themselves.
+     *
+     * @param startDate The date of the serial number 0.
+     *
+     * @return The formatter for the date system.
+     */
+    protected ValueFormatter withStartDate(LocalDateTime startDate) {
+        return this;
+    }
+
     public int getNumberOfDecimalPlaces() {
         return 0;
     }
 
+    /**
+     * @return The factor the <tt>%</tt> signs of the format multiply the
+     *         value by, or 1 if there are none.
+     */
+    public double getPercentScale() {
+        return 1;
+    }
+
+    /**
+     * @return <tt>true</tt> if the format separates the thousands.
+     */
+    public boolean isGrouping() {
+        return false;
+    }
+
     public String createNestedFormatWith(Integer places, Boolean showGroupingSeparator, Boolean setMinus) {
         return format;
     }
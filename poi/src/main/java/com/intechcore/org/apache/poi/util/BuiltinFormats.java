@@ -0,0 +1,121 @@
+/* ====================================================================
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+   2022 - Intechcore GmbH.
+==================================================================== */
+package com.intechcore.org.apache.poi.util;
+
+/**
+ * The number formats that Excel has built in, by their numFmtId, which
+ * workbooks refer to without storing the format code.  The codes are those
+ * of the <tt>BuiltinFormats</tt> of Apache POI.
+ * <p>
+ * The ids 27 to 36 and 50 to 81 are built in only for some locales of Excel,
+ * with different codes for each, e.g. for Japanese or Thai; they have no code
+ * here.  The ids 23 to 26 are reserved.
+ */
+public final class BuiltinFormats {
+    /** The number of ids that Excel reserves for built-in formats. */
+    public static final int BUILTIN_ID_COUNT = 82;
+    /** The first id of the formats that a workbook defines. */
+    public static final int FIRST_USER_DEFINED_FORMAT_INDEX = 164;
+
+    private static final String[] FORMATS = new String[BUILTIN_ID_COUNT];
+
+    static {
+        FORMATS[0] = FormatHelper.GENERAL_CODE;
+        FORMATS[1] = "0";
+        FORMATS[2] = "0.00";
+        FORMATS[3] = "#,##0";
+        FORMATS[4] = "#,##0.00";
+        FORMATS[5] = "\"$\"#,##0_);(\"$\"#,##0)";
+        FORMATS[6] = "\"$\"#,##0_);[Red](\"$\"#,##0)";
+        FORMATS[7] = "\"$\"#,##0.00_);(\"$\"#,##0.00)";
+        FORMATS[8] = "\"$\"#,##0.00_);[Red](\"$\"#,##0.00)";
+        FORMATS[9] = "0%";
+        FORMATS[10] = "0.00%";
+        FORMATS[11] = "0.00E+00";
+        FORMATS[12] = "# ?/?";
+        FORMATS[13] = "# ??/??";
+        // the short date as in the table of Apache POI, so that ids map to
+        // the same codes; Excel shows it as m/d/yyyy in the US
+        FORMATS[14] = "m/d/yy";
+        FORMATS[15] = "d-mmm-yy";
+        FORMATS[16] = "d-mmm";
+        FORMATS[17] = "mmm-yy";
+        FORMATS[18] = "h:mm AM/PM";
+        FORMATS[19] = "h:mm:ss AM/PM";
+        FORMATS[20] = "h:mm";
+        FORMATS[21] = "h:mm:ss";
+        FORMATS[22] = "m/d/yy h:mm";
+        FORMATS[37] = "#,##0_);(#,##0)";
+        FORMATS[38] = "#,##0_);[Red](#,##0)";
+        FORMATS[39] = "#,##0.00_);(#,##0.00)";
+        FORMATS[40] = "#,##0.00_);[Red](#,##0.00)";
+        FORMATS[41] = "_(* #,##0_);_(* (#,##0);_(* \"-\"_);_(@_)";
+        FORMATS[42] = "_(\"$\"* #,##0_);_(\"$\"* (#,##0);_(\"$\"* \"-\"_);_(@_)";
+        FORMATS[43] = "_(* #,##0.00_);_(* (#,##0.00);_(* \"-\"??_);_(@_)";
+        FORMATS[44] = "_(\"$\"* #,##0.00_);_(\"$\"* (#,##0.00);_(\"$\"* \"-\"??_);_(@_)";
+        FORMATS[45] = "mm:ss";
+        FORMATS[46] = "[h]:mm:ss";
+        FORMATS[47] = "mm:ss.0";
+        FORMATS[48] = "##0.0E+0";
+        FORMATS[49] = FormatHelper.TEXT_FORMAT;
+    }
+
+    private BuiltinFormats() {
+    }
+
+    /**
+     * Returns the code of a built-in format.
+     *
+     * @param id The numFmtId.
+     *
+     * @return The format code, or <tt>null</tt> if the id has no built-in
+     *         code here.
+     */
+    public static String getBuiltinFormat(int id) {
+        return id >= 0 && id < BUILTIN_ID_COUNT ? FORMATS[id] : null;
+    }
+
+    /**
+     * Returns the id of a built-in format.
+     *
+     * @param code The format code.
+     *
+     * @return The numFmtId, or -1 if the code is not built in.
+     */
+    public static int getBuiltinFormat(String code) {
+        for (int i = 0; i < BUILTIN_ID_COUNT; i++) {
+            if (code.equals(FORMATS[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the id is built in only for some locales of
+     * Excel, with a code that depends on the locale.
+     *
+     * @param id The numFmtId.
+     *
+     * @return <tt>true</tt> for the ids 27 to 36 and 50 to 81.
+     */
+    public static boolean isLocaleDependent(int id) {
+        return (id >= 27 && id <= 36) || (id >= 50 && id < BUILTIN_ID_COUNT);
+    }
+}
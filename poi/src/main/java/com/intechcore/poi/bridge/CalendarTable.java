@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.intechcore.poi.bridge;
+
+import java.time.LocalDate;
+
+/**
+ * A table of the year, month, day and day of the week of each day in a range
+ * of years, so that a date is a lookup instead of calendar arithmetic.  The
+ * dates are packed into an <tt>int</tt>: see {@link #pack}, {@link #year},
+ * {@link #month}, {@link #day} and {@link #dayOfWeek}.
+ * <p>
+ * The table is shared by the whole process and is made on first use, for
+ * the years 1900 to 2200 by default, which takes about 430 KB.  The range
+ * and a cap on the memory of the table can be configured before.
+ */
+public final class CalendarTable {
+    /** The packed date for a day that is not in the table. */
+    public static final int NONE = 0;
+    /** The last year that can be packed. */
+    public static final int MAX_YEAR = 0x7FFFF;
+
+    private static final int DEFAULT_FIRST_YEAR = 1900;
+    private static final int DEFAULT_LAST_YEAR = 2200;
+
+    private static int firstYear = DEFAULT_FIRST_YEAR;
+    private static int lastYear = DEFAULT_LAST_YEAR;
+    private static int maxBytes = Integer.MAX_VALUE;
+    private static volatile Table table;
+
+    private CalendarTable() {
+    }
+
+    /**
+     * Sets the years of the table.  The table is made again on next use.
+     *
+     * @param firstYear The first year, at least 1.
+     * @param lastYear  The last year, at most {@link #MAX_YEAR}; a last year
+     *                  before the first year switches the table off.
+     */
+    public static synchronized void configure(int firstYear, int lastYear) {
+        if (firstYear < 1 || lastYear > MAX_YEAR) {
+            throw new IllegalArgumentException("years " + firstYear + " to " + lastYear);
+        }
+        CalendarTable.firstYear = firstYear;
+        CalendarTable.lastYear = lastYear;
+        table = null;
+    }
+
+    /**
+     * Caps the memory of the table.  Years that do not fit are left out from
+     * the end of the range; their dates are computed instead.  The table is
+     * made again on next use.
+     *
+     * @param maxBytes The most bytes of the table; 0 switches the table off.
+     */
+    public static synchronized void setMemoryCap(int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes);
+        }
+        CalendarTable.maxBytes = maxBytes;
+        table = null;
+    }
+
+    /**
+     * Returns the packed date of a day.
+     *
+     * @param epochDay The day, as counted by {@link LocalDate#toEpochDay()}.
+     *
+     * @return The packed date, or {@link #NONE} if the day is not in the
+     *         table.
+     */
+    public static int lookup(long epochDay) {
+        Table current = table;
+        if (current == null) {
+            current = build();
+        }
+        long index = epochDay - current.firstEpochDay;
+        return index >= 0 && index < current.dates.length ? current.dates[(int) index] : NONE;
+    }
+
+    /**
+     * Returns the packed date of a day, from the table if it is in it.
+     *
+     * @param epochDay The day, as counted by {@link LocalDate#toEpochDay()}.
+     *
+     * @return The packed date, or {@link #NONE} if the year is before 1 or
+     *         after {@link #MAX_YEAR}.
+     */
+    public static int toPackedDate(long epochDay) {
+        int packed = lookup(epochDay);
+        if (packed != NONE || epochDay < LocalDate.MIN.toEpochDay() || epochDay > LocalDate.MAX.toEpochDay()) {
+            return packed;
+        }
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        if (date.getYear() < 1 || date.getYear() > MAX_YEAR) {
+            return NONE;
+        }
+        return pack(date.getYear(), date.getMonthValue(), date.getDayOfMonth(), date.getDayOfWeek().getValue());
+    }
+
+    /**
+     * Packs a date.
+     *
+     * @param year      The year, from 1 to {@link #MAX_YEAR}.
+     * @param month     The month, from 1 (January) to 12.
+     * @param day       The day of the month.
+     * @param dayOfWeek The day of the week, from 1 (Monday) to 7 (Sunday).
+     *
+     * @return The packed date, never {@link #NONE}.
+     */
+    public static int pack(int year, int month, int day, int dayOfWeek) {
+        return year << 12 | month << 8 | day << 3 | dayOfWeek - 1;
+    }
+
+    public static int year(int packed) {
+        return packed >>> 12;
+    }
+
+    public static int month(int packed) {
+        return packed >>> 8 & 0xF;
+    }
+
+    public static int day(int packed) {
+        return packed >>> 3 & 0x1F;
+    }
+
+    /**
+     * @param packed The packed date.
+     *
+     * @return The day of the week, from 1 (Monday) to 7 (Sunday).
+     */
+    public static int dayOfWeek(int packed) {
+        return (packed & 0x7) + 1;
+    }
+
+    private static synchronized Table build() {
+        Table current = table;
+        if (current != null) {
+            return current;
+        }
+        long firstEpochDay = LocalDate.of(firstYear, 1, 1).toEpochDay();
+        long days = lastYear < firstYear ? 0 : LocalDate.of(lastYear, 12, 31).toEpochDay() - firstEpochDay + 1;
+        int[] dates = new int[(int) Math.min(days, maxBytes / 4)];
+
+        // Monday is 1970-01-05, the epoch day 4
+        int dayOfWeek = (int) Math.floorMod(firstEpochDay - 4, 7L);
+        int year = firstYear;
+        int month = 1;
+        int day = 1;
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = pack(year, month, day, dayOfWeek + 1);
+            dayOfWeek = dayOfWeek == 6 ? 0 : dayOfWeek + 1;
+            if (day < lengthOfMonth(year, month)) {
+                day++;
+            } else if (month < 12) {
+                day = 1;
+                month++;
+            } else {
+                day = 1;
+                month = 1;
+                year++;
+            }
+        }
+        current = new Table(firstEpochDay, dates);
+        table = current;
+        return current;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static final class Table {
+        final long firstEpochDay;
+        final int[] dates;
+
+        Table(long firstEpochDay, int[] dates) {
+            this.firstEpochDay = firstEpochDay;
+            this.dates = dates;
+        }
+    }
+}
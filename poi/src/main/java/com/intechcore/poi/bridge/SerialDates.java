@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.intechcore.poi.bridge;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * The serial numbers of the Excel date systems, computed from epoch days.
+ * In the 1900 system 1 is 1900-01-01, and 60 is the 1900-02-29 that does not
+ * exist, as Lotus 1-2-3 took 1900 for a leap year; later days are one more
+ * than their distance from 1899-12-31.  In the 1904 system 0 is 1904-01-01.
+ * The time of day is the fraction of the day.
+ */
+public final class SerialDates implements IDateTimeUtilsBridge {
+    /** The 1900 date system, the default of Excel on Windows. */
+    public static final SerialDates DATE_1900 = new SerialDates(false);
+    /** The 1904 date system. */
+    public static final SerialDates DATE_1904 = new SerialDates(true);
+
+    /** The epoch day of 1899-12-31, the day 0 of the 1900 system. */
+    private static final long EPOCH_DAY_1900 = -25568;
+    /** The epoch day of 1900-03-01, the first day after the missing leap day. */
+    private static final long EPOCH_DAY_1900_03_01 = -25508;
+    /** The serial number of the missing 1900-02-29. */
+    private static final int LEAP_BUG_SERIAL = 60;
+    /** The epoch day of 1904-01-01, the day 0 of the 1904 system. */
+    private static final long EPOCH_DAY_1904 = -24107;
+
+    private static final double NANOS_PER_DAY = 86_400_000_000_000.0;
+
+    private final boolean date1904;
+
+    private SerialDates(boolean date1904) {
+        this.date1904 = date1904;
+    }
+
+    /**
+     * @return <tt>true</tt> for the 1904 date system.
+     */
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    /**
+     * Returns the serial number of a day.
+     *
+     * @param epochDay The day, as counted by {@link LocalDate#toEpochDay()}.
+     *
+     * @return The serial number; days before the start of the date system
+     *         have numbers below 0, or 1 in the 1900 system.
+     */
+    public long toSerial(long epochDay) {
+        if (date1904) {
+            return epochDay - EPOCH_DAY_1904;
+        }
+        return epochDay >= EPOCH_DAY_1900_03_01 ? epochDay - EPOCH_DAY_1900 + 1 : epochDay - EPOCH_DAY_1900;
+    }
+
+    /**
+     * Returns the serial number of a day and time.
+     *
+     * @param epochDay  The day, as counted by {@link LocalDate#toEpochDay()}.
+     * @param nanoOfDay The time of the day in nanoseconds.
+     *
+     * @return The serial number, with the time as the fraction.
+     */
+    public double toSerial(long epochDay, long nanoOfDay) {
+        return toSerial(epochDay) + nanoOfDay / NANOS_PER_DAY;
+    }
+
+    /**
+     * Returns the day of a serial number, without the time.  In the 1900
+     * system 60, the missing 1900-02-29, is 1900-03-01.
+     *
+     * @param serial The serial number.
+     *
+     * @return The day, as counted by {@link LocalDate#toEpochDay()}.
+     */
+    public long toEpochDay(double serial) {
+        long day = (long) Math.floor(serial);
+        if (date1904) {
+            return day + EPOCH_DAY_1904;
+        }
+        return day > LEAP_BUG_SERIAL ? day + EPOCH_DAY_1900 - 1 : day + EPOCH_DAY_1900;
+    }
+
+    /**
+     * Returns the date of a serial number, without the time, packed as in
+     * {@link CalendarTable}.
+     *
+     * @param serial The serial number.
+     *
+     * @return The packed date, or {@link CalendarTable#NONE} if the year is
+     *         out of range.
+     */
+    public int toPackedDate(double serial) {
+        return CalendarTable.toPackedDate(toEpochDay(serial));
+    }
+
+    /**
+     * Returns the date of a serial number, without the time.
+     *
+     * @param serial The serial number.
+     *
+     * @return The date.
+     */
+    public LocalDate toLocalDate(double serial) {
+        int packed = toPackedDate(serial);
+        if (packed == CalendarTable.NONE) {
+            return LocalDate.ofEpochDay(toEpochDay(serial));
+        }
+        return LocalDate.of(CalendarTable.year(packed), CalendarTable.month(packed), CalendarTable.day(packed));
+    }
+
+    /**
+     * Converts days to serial numbers.
+     *
+     * @param epochDays The days, as counted by {@link LocalDate#toEpochDay()}.
+     * @param from      The index of the first day.
+     * @param to        The index after the last day.
+     * @param serials   Receives the serial numbers.
+     * @param offset    The index in <tt>serials</tt> of the first serial number.
+     */
+    public void toSerials(long[] epochDays, int from, int to, double[] serials, int offset) {
+        if (from < 0 || to > epochDays.length || from > to || offset < 0 || offset + to - from > serials.length) {
+            throw new IndexOutOfBoundsException("from " + from + ", to " + to + ", offset " + offset);
+        }
+        // the days before the leap day bug are one less; the sign bit of the
+        // distance to 1900-03-01 gives the 1, so there is no branch per day
+        long shift = date1904 ? -EPOCH_DAY_1904 : 1 - EPOCH_DAY_1900;
+        long leapBug = date1904 ? 0 : 1;
+        for (int i = from; i < to; i++) {
+            long epochDay = epochDays[i];
+            serials[offset + i - from] = epochDay + shift - ((epochDay - EPOCH_DAY_1900_03_01) >>> 63 & leapBug);
+        }
+    }
+
+    /**
+     * Converts days to serial numbers.
+     *
+     * @param epochDays The days, as counted by {@link LocalDate#toEpochDay()}.
+     *
+     * @return The serial numbers.
+     */
+    public double[] toSerials(long[] epochDays) {
+        double[] serials = new double[epochDays.length];
+        toSerials(epochDays, 0, epochDays.length, serials, 0);
+        return serials;
+    }
+
+    @Override
+    public double getSerialNumberFromDateTime(LocalDateTime value) {
+        return toSerial(value.toLocalDate().toEpochDay(), value.toLocalTime().toNanoOfDay());
+    }
+
+    @Override
+    public int getSerialNumberFromDate(LocalDate value) {
+        return (int) toSerial(value.toEpochDay());
+    }
+
+    @Override
+    public String toString() {
+        return date1904 ? "SerialDates[1904]" : "SerialDates[1900]";
+    }
+}